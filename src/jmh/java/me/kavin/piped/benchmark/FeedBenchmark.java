@@ -0,0 +1,51 @@
+package me.kavin.piped.benchmark;
+
+import com.rometools.rome.feed.synd.SyndEntry;
+import me.kavin.piped.utils.ChannelHelpers;
+import me.kavin.piped.utils.FeedHelpers;
+import me.kavin.piped.utils.obj.StreamItem;
+import me.kavin.piped.utils.obj.db.Video;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static me.kavin.piped.consts.Constants.mapper;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FeedBenchmark {
+
+    @Param({"1000", "10000"})
+    public int size;
+
+    private List<Video> videos;
+    private List<StreamItem> items;
+
+    @Setup
+    public void setup() {
+        videos = Fixtures.feed(size);
+        items = buildItems();
+    }
+
+    @Benchmark
+    public List<StreamItem> buildItems() {
+        return videos.stream().map(FeedHelpers::toStreamItem).toList();
+    }
+
+    @Benchmark
+    public byte[] serializeItems() throws Exception {
+        return mapper.writeValueAsBytes(items);
+    }
+
+    @Benchmark
+    public List<SyndEntry> createRssEntries() {
+        return videos.stream()
+                .map(video -> ChannelHelpers.createEntry(video, video.getChannel()))
+                .toList();
+    }
+}
@@ -0,0 +1,182 @@
+package me.kavin.piped.benchmark;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import me.kavin.piped.utils.obj.db.Channel;
+import me.kavin.piped.utils.obj.db.Video;
+import org.schabi.newpipe.extractor.Image;
+import org.schabi.newpipe.extractor.InfoItem;
+import org.schabi.newpipe.extractor.MediaFormat;
+import org.schabi.newpipe.extractor.localization.DateWrapper;
+import org.schabi.newpipe.extractor.services.youtube.ItagItem;
+import org.schabi.newpipe.extractor.stream.*;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic, offline stand-ins for what the extractor and the database return, shaped like real YouTube responses.
+ */
+class Fixtures {
+
+    private static final OffsetDateTime NOW = OffsetDateTime.of(2024, 5, 1, 12, 0, 0, 0, ZoneOffset.UTC);
+
+    private static final String VIDEO_URL = "https://rr3---sn-4g5e6nzz.googlevideo.com/videoplayback?expire=1714571234" +
+            "&ei=Lh8PZqXYKLyBvdIP6LmB8A4&ip=203.0.113.7&id=o-AJ4s3Dm5ZbJbYX0VqIvvR6d3nWm5F0p7zT7l6Kq1N2hB&itag=%d" +
+            "&source=youtube&requiressl=yes&xpc=EgVo2aDSNQ%%3D%%3D&mh=7c&mm=31%%2C29&mn=sn-4g5e6nzz%%2Csn-4g5ednd7" +
+            "&ms=au%%2Crdu&mv=m&mvi=3&pl=24&initcwndbps=1753750&vprv=1&mime=%s&gir=yes&clen=3437753&dur=212.061" +
+            "&lmt=1714829870710281&mt=1712323801&fvip=1&keepalive=yes&c=IOS&txp=4532434" +
+            "&sparams=expire%%2Cei%%2Cip%%2Cid%%2Citag%%2Csource%%2Crequiressl" +
+            "&sig=AJfQdSswRQIhAN5sKnN3kD1n0c2BvpJ2hj2sY5Dk3jv8n6A5bYq_lWvNAiAgVv7lQmA2G3_6Wu9t0b3YJk3bFQ4m2Yk1Rk5Vz8m2Eg%%3D%%3D" +
+            "&lsparams=mh%%2Cmm%%2Cmn%%2Cms%%2Cmv%%2Cmvi%%2Cpl%%2Cinitcwndbps&lsig=AHWaYeowRQIgR3ZQ";
+
+    static StreamInfo streamInfo() throws Exception {
+        StreamInfo info = new StreamInfo(0, "https://www.youtube.com/watch?v=dQw4w9WgXcQ",
+                "https://www.youtube.com/watch?v=dQw4w9WgXcQ", StreamType.VIDEO_STREAM, "dQw4w9WgXcQ",
+                "Rick Astley - Never Gonna Give You Up (Official Music Video)", 0);
+
+        info.setThumbnails(thumbnails("dQw4w9WgXcQ"));
+        info.setUploaderName("Rick Astley");
+        info.setUploaderUrl("https://www.youtube.com/channel/UCuAXFkgsw1L7xaCfnd5JJOw");
+        info.setUploaderAvatars(avatars("UCuAXFkgsw1L7xaCfnd5JJOw"));
+        info.setUploaderVerified(true);
+        info.setUploaderSubscriberCount(4_120_000);
+        info.setDescription(new Description("The official video for “Never Gonna Give You Up” by Rick Astley. ".repeat(20),
+                Description.PLAIN_TEXT));
+        info.setDuration(212);
+        info.setViewCount(1_523_456_789);
+        info.setLikeCount(17_000_000);
+        info.setUploadDate(new DateWrapper(NOW.minusYears(15)));
+        info.setTextualUploadDate("2009-10-24");
+        info.setPrivacy(StreamExtractor.Privacy.PUBLIC);
+        info.setCategory("Music");
+        info.setLicence("Standard YouTube License");
+        info.setTags(List.of("rick astley", "never gonna give you up", "music video", "80s"));
+
+        List<VideoStream> videoOnlyStreams = new ObjectArrayList<>();
+        int[] itags = {137, 248, 136, 247, 135, 244, 134, 243, 133, 242, 160, 278};
+        for (int itag : itags) {
+            ItagItem itagItem = ItagItem.getItag(itag);
+            videoOnlyStreams.add(new VideoStream.Builder()
+                    .setId(String.valueOf(itag))
+                    .setContent(String.format(VIDEO_URL, itag, itagItem.getMediaFormat().getMimeType().replace("/", "%2F")), true)
+                    .setMediaFormat(itagItem.getMediaFormat())
+                    .setResolution(itagItem.getResolutionString())
+                    .setIsVideoOnly(true)
+                    .setItagItem(itagItem)
+                    .build());
+        }
+        info.setVideoOnlyStreams(videoOnlyStreams);
+
+        ItagItem muxed = ItagItem.getItag(18);
+        info.setVideoStreams(List.of(new VideoStream.Builder()
+                .setId("18")
+                .setContent(String.format(VIDEO_URL, 18, "video%2Fmp4"), true)
+                .setMediaFormat(MediaFormat.MPEG_4)
+                .setResolution("360p")
+                .setIsVideoOnly(false)
+                .setItagItem(muxed)
+                .build()));
+
+        List<AudioStream> audioStreams = new ObjectArrayList<>();
+        for (int itag : new int[]{251, 250, 249, 140, 139}) {
+            ItagItem itagItem = ItagItem.getItag(itag);
+            audioStreams.add(new AudioStream.Builder()
+                    .setId(String.valueOf(itag))
+                    .setContent(String.format(VIDEO_URL, itag, itagItem.getMediaFormat().getMimeType().replace("/", "%2F")), true)
+                    .setMediaFormat(itagItem.getMediaFormat())
+                    .setAverageBitrate(itagItem.getAverageBitrate())
+                    .setItagItem(itagItem)
+                    .build());
+        }
+        info.setAudioStreams(audioStreams);
+
+        info.setRelatedItems(relatedItems(20));
+
+        return info;
+    }
+
+    static List<InfoItem> relatedItems(int count) {
+        SplittableRandom random = new SplittableRandom(42);
+        List<InfoItem> items = new ObjectArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            String id = videoId(random);
+            String channelId = channelId(random);
+
+            StreamInfoItem item = new StreamInfoItem(0, "https://www.youtube.com/watch?v=" + id,
+                    "Related video number " + i + " with a reasonably long title", StreamType.VIDEO_STREAM);
+            item.setThumbnails(thumbnails(id));
+            item.setUploaderName("Channel " + i);
+            item.setUploaderUrl("https://www.youtube.com/channel/" + channelId);
+            item.setUploaderAvatars(avatars(channelId));
+            item.setUploaderVerified(random.nextBoolean());
+            item.setTextualUploadDate((i + 1) + " days ago");
+            item.setUploadDate(new DateWrapper(NOW.minusDays(i + 1), true));
+            item.setViewCount(random.nextLong(1_000, 100_000_000));
+            item.setDuration(random.nextLong(30, 3_600));
+            item.setShortDescription("A short description of related video " + i);
+
+            items.add(item);
+        }
+
+        return items;
+    }
+
+    /**
+     * A feed as it comes out of the database, spread over a realistic number of channels.
+     */
+    static List<Video> feed(int size) {
+        SplittableRandom random = new SplittableRandom(42);
+
+        List<Channel> channels = new ObjectArrayList<>();
+        for (int i = 0; i < Math.max(1, size / 20); i++) {
+            String channelId = channelId(random);
+            channels.add(new Channel(channelId, "Channel " + i,
+                    "https://yt3.ggpht.com/ytc/" + channelId + "=s176-c-k-c0x00ffffff-no-rj", random.nextBoolean()));
+        }
+
+        List<Video> videos = new ObjectArrayList<>(size);
+        long uploaded = NOW.toInstant().toEpochMilli();
+        for (int i = 0; i < size; i++) {
+            String id = videoId(random);
+            uploaded -= random.nextLong(1_000, 3_600_000);
+            videos.add(new Video(id, "Feed video number " + i + " with a reasonably long title",
+                    random.nextLong(1_000, 10_000_000), random.nextLong(30, 3_600), uploaded,
+                    "https://i.ytimg.com/vi/" + id + "/mqdefault.jpg", random.nextInt(10) == 0,
+                    channels.get(random.nextInt(channels.size()))));
+        }
+
+        return videos;
+    }
+
+    private static List<Image> thumbnails(String id) {
+        return List.of(
+                new Image("https://i.ytimg.com/vi/" + id + "/mqdefault.jpg", 180, 320, Image.ResolutionLevel.MEDIUM),
+                new Image("https://i.ytimg.com/vi/" + id + "/hqdefault.jpg?sqp=-oaymwEcCNACELwBSFXyq4qpAw4IARUAAIhCGAFwAcABBg==" +
+                        "&rs=AOn4CLBY2BN2xxDuxeHhk9CMwoV9g3fPDw", 360, 480, Image.ResolutionLevel.HIGH)
+        );
+    }
+
+    private static List<Image> avatars(String channelId) {
+        return List.of(new Image("https://yt3.ggpht.com/ytc/" + channelId + "=s176-c-k-c0x00ffffff-no-rj",
+                176, 176, Image.ResolutionLevel.MEDIUM));
+    }
+
+    private static String videoId(SplittableRandom random) {
+        return randomId(random, 11);
+    }
+
+    private static String channelId(SplittableRandom random) {
+        return "UC" + randomId(random, 22);
+    }
+
+    private static String randomId(SplittableRandom random, int length) {
+        final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++)
+            chars[i] = alphabet.charAt(random.nextInt(alphabet.length()));
+        return new String(chars);
+    }
+}
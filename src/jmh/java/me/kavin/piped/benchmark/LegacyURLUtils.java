@@ -0,0 +1,124 @@
+package me.kavin.piped.benchmark;
+
+import me.kavin.piped.utils.URLUtils;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.lang3.StringUtils;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+import static me.kavin.piped.consts.Constants.PROXY_HASH_SECRET;
+
+/**
+ * The previous, java.net.URL and TreeSet based implementation of {@link URLUtils#rewriteURL(String, String, Map)},
+ * kept as a baseline for {@link URLUtilsBenchmark}.
+ */
+class LegacyURLUtils {
+
+    public static String rewriteURL(final String old, final String proxy, final Map<String, String> extraParams) {
+
+        if (StringUtils.isEmpty(old)) return null;
+
+        URL url = null;
+        try {
+            url = new URL(old);
+        } catch (MalformedURLException e) {
+            throw new RuntimeException(e);
+        }
+        assert url != null;
+
+        final String host = url.getHost();
+
+        String query = url.getQuery();
+
+        boolean hasQuery = query != null;
+
+        Comparator<List<String>> listComparator = (o1, o2) -> {
+            for (int i = 0; i < Math.min(o1.size(), o2.size()); i++) {
+                int result = o1.get(i).compareTo(o2.get(i));
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return Integer.compare(o1.size(), o2.size()); // compare list sizes if all elements are equal
+        };
+
+        Set<List<String>> queryPairs = new TreeSet<>(listComparator);
+
+        if (hasQuery) {
+            String[] pairs = query.split("&");
+
+            for (String pair : pairs) {
+                int idx = pair.indexOf("=");
+                queryPairs.add(List.of(
+                        URLUtils.silentDecode(pair.substring(0, idx)),
+                        URLUtils.silentDecode(pair.substring(idx + 1))
+                ));
+            }
+        }
+
+        // look for host param, and add it if it doesn't exist
+        boolean hasHost = false;
+        for (List<String> pair : queryPairs) {
+            if (pair.get(0).equals("host")) {
+                hasHost = true;
+                break;
+            }
+        }
+        if (!hasHost) {
+            queryPairs.add(List.of("host", host));
+        }
+
+        for (var entry : extraParams.entrySet()) {
+            queryPairs.add(List.of(entry.getKey(), entry.getValue()));
+        }
+
+        String path = url.getPath();
+
+        if (path.contains("=")) {
+            path = StringUtils.substringBefore(path, "=") + "=" + StringUtils.substringAfter(path, "=").replace("-rj", "-rw");
+        }
+
+        if (PROXY_HASH_SECRET != null)
+            try {
+                MessageDigest md = MessageDigest.getInstance("BLAKE3-256");
+                for (List<String> pair : queryPairs) {
+                    md.update(pair.get(0).getBytes(StandardCharsets.UTF_8));
+                    md.update(pair.get(1).getBytes(StandardCharsets.UTF_8));
+                }
+
+                md.update(path.getBytes(StandardCharsets.UTF_8));
+
+                md.update(PROXY_HASH_SECRET);
+
+                queryPairs.add(List.of("qhash", Hex.encodeHexString(md.digest()).substring(0, 8)));
+            } catch (NoSuchAlgorithmException e) {
+                e.printStackTrace();
+            }
+
+        String newUrl = proxy + path;
+
+        StringBuilder qstring = null;
+
+        for (List<String> pair : queryPairs) {
+            if (qstring == null) {
+                qstring = new StringBuilder();
+            } else {
+                qstring.append("&");
+            }
+
+            qstring.append(URLUtils.silentEncode(pair.get(0)));
+            qstring.append("=");
+            qstring.append(URLUtils.silentEncode(pair.get(1)));
+        }
+
+        newUrl += "?" + qstring;
+
+        return newUrl;
+
+    }
+}
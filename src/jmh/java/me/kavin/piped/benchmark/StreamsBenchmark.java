@@ -0,0 +1,48 @@
+package me.kavin.piped.benchmark;
+
+import me.kavin.piped.utils.CollectionUtils;
+import me.kavin.piped.utils.obj.ContentItem;
+import me.kavin.piped.utils.obj.Streams;
+import org.openjdk.jmh.annotations.*;
+import org.schabi.newpipe.extractor.InfoItem;
+import org.schabi.newpipe.extractor.stream.StreamInfo;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static me.kavin.piped.consts.Constants.mapper;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamsBenchmark {
+
+    private StreamInfo info;
+    private List<InfoItem> relatedItems;
+    private Streams streams;
+
+    @Setup
+    public void setup() throws Exception {
+        info = Fixtures.streamInfo();
+        relatedItems = Fixtures.relatedItems(100);
+        streams = CollectionUtils.collectStreamInfo(info);
+    }
+
+    @Benchmark
+    public Streams collectStreamInfo() {
+        return CollectionUtils.collectStreamInfo(info);
+    }
+
+    @Benchmark
+    public List<ContentItem> collectRelatedItems() {
+        return CollectionUtils.collectRelatedItems(relatedItems);
+    }
+
+    @Benchmark
+    public byte[] serializeStreams() throws Exception {
+        return mapper.writeValueAsBytes(streams);
+    }
+}
@@ -0,0 +1,63 @@
+package me.kavin.piped.benchmark;
+
+import me.kavin.piped.consts.Constants;
+import me.kavin.piped.utils.URLUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class URLUtilsBenchmark {
+
+    private static final String[] IMAGE_URLS = {
+            "https://i.ytimg.com/vi/dQw4w9WgXcQ/hqdefault.jpg?sqp=-oaymwEcCNACELwBSFXyq4qpAw4IARUAAIhCGAFwAcABBg==&rs=AOn4CLBY2BN2xxDuxeHhk9CMwoV9g3fPDw",
+            "https://i.ytimg.com/vi/jNQXAC9IVRw/mqdefault.jpg",
+            "https://yt3.ggpht.com/ytc/AIdro_kX4Xj8EQ5ngUNnkbkB8HZ2FHRCDpumvtiwMzEVqQ=s176-c-k-c0x00ffffff-no-rj",
+            "https://i.ytimg.com/sb/dQw4w9WgXcQ/storyboard3_L2/M$M.jpg?sqp=-oaymwENSDfyq4qpAwVwAcABAqLzl_8DBgjz-6OVBg==&sigh=rs$AOn4CLDOYEAtD9DnUnZW2RhoR7x5DRnL8A",
+    };
+
+    private static final String VIDEO_URL = "https://rr3---sn-4g5e6nzz.googlevideo.com/videoplayback?expire=1712345678" +
+            "&ei=Lh8PZqXYKLyBvdIP6LmB8A4&ip=203.0.113.7&id=o-AJ4s3Dm5ZbJbYX0VqIvvR6d3nWm5F0p7zT7l6Kq1N2hB&itag=251" +
+            "&source=youtube&requiressl=yes&xpc=EgVo2aDSNQ%3D%3D&mh=7c&mm=31%2C29&mn=sn-4g5e6nzz%2Csn-4g5ednd7&ms=au%2Crdu" +
+            "&mv=m&mvi=3&pl=24&initcwndbps=1753750&vprv=1&mime=audio%2Fwebm&gir=yes&clen=3437753&dur=212.061&lmt=1714829870710281" +
+            "&mt=1712323801&fvip=1&keepalive=yes&c=IOS&txp=4532434&sparams=expire%2Cei%2Cip%2Cid%2Citag%2Csource%2Crequiressl" +
+            "&sig=AJfQdSswRQIhAN5sKnN3kD1n0c2BvpJ2hj2sY5Dk3jv8n6A5bYq_lWvNAiAgVv7lQmA2G3_6Wu9t0b3YJk3bFQ4m2Yk1Rk5Vz8m2Eg%3D%3D" +
+            "&lsparams=mh%2Cmm%2Cmn%2Cms%2Cmv%2Cmvi%2Cpl%2Cinitcwndbps&lsig=AHWaYeowRQIgR3ZQ";
+
+    private static final Map<String, String> VIDEO_PARAMS = Map.of("ump", "1");
+
+    @Benchmark
+    public void imageLegacy(Blackhole bh) {
+        for (String url : IMAGE_URLS)
+            bh.consume(LegacyURLUtils.rewriteURL(url, Constants.IMAGE_PROXY_PART, Map.of()));
+    }
+
+    @Benchmark
+    public void imageUncached(Blackhole bh) {
+        for (String url : IMAGE_URLS)
+            bh.consume(URLUtils.rewriteURL(url, Constants.IMAGE_PROXY_PART, Map.of()));
+    }
+
+    @Benchmark
+    public void imageMemoized(Blackhole bh) {
+        for (String url : IMAGE_URLS)
+            bh.consume(URLUtils.rewriteURL(url));
+    }
+
+    @Benchmark
+    public String videoLegacy() {
+        return LegacyURLUtils.rewriteURL(VIDEO_URL, Constants.PROXY_PART, VIDEO_PARAMS);
+    }
+
+    @Benchmark
+    public String video() {
+        return URLUtils.rewriteVideoURL(VIDEO_URL, VIDEO_PARAMS);
+    }
+}
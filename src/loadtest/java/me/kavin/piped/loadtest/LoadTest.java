@@ -0,0 +1,240 @@
+package me.kavin.piped.loadtest;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import me.kavin.piped.Main;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closed-loop load generator for the Piped API.
+ * <p>
+ * Arguments are {@code key=value} pairs:
+ * <ul>
+ *     <li>{@code url} - base URL of the instance, default {@code http://127.0.0.1:8080}</li>
+ *     <li>{@code concurrency} - number of concurrent clients, default 64</li>
+ *     <li>{@code duration} - seconds to measure for, default 30</li>
+ *     <li>{@code warmup} - seconds to run before measuring, default 10</li>
+ *     <li>{@code routes} - {@code weight*path} entries separated by {@code ;}, defaults to a mix of the public endpoints</li>
+ *     <li>{@code inProcess} - start the server in this JVM, and run every route on its own to measure its allocations</li>
+ * </ul>
+ * For reproducible numbers, run against HSQLDB with replayed upstream responses, see testing/config.loadtest.properties.
+ */
+public class LoadTest {
+
+    private static final String DEFAULT_ROUTES = String.join(";",
+            "30*/streams/dQw4w9WgXcQ",
+            "20*/trending?region=US",
+            "15*/channel/UCuAXFkgsw1L7xaCfnd5JJOw",
+            "15*/search?q=never%20gonna%20give%20you%20up&filter=all",
+            "10*/suggestions?query=never%20gonna",
+            "10*/feed/unauthenticated?channels=UCuAXFkgsw1L7xaCfnd5JJOw"
+    );
+
+    private record Route(String path, int weight) {
+    }
+
+    private record Result(Route route, LongArrayList latencies, long errors, double seconds, long allocated) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new Object2ObjectLinkedOpenHashMap<>();
+        for (String arg : args) {
+            int idx = arg.indexOf('=');
+            if (idx > 0)
+                options.put(arg.substring(0, idx), arg.substring(idx + 1));
+        }
+
+        String url = options.getOrDefault("url", "http://127.0.0.1:8080");
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "64"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "10"));
+        boolean inProcess = Boolean.parseBoolean(options.getOrDefault("inProcess", "false"));
+
+        List<Route> routes = new ObjectArrayList<>();
+        for (String entry : options.getOrDefault("routes", DEFAULT_ROUTES).split(";")) {
+            int idx = entry.indexOf('*');
+            routes.add(idx < 0
+                    ? new Route(entry, 1)
+                    : new Route(entry.substring(idx + 1), Integer.parseInt(entry.substring(0, idx))));
+        }
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+
+        if (inProcess) {
+            Main.main(new String[0]);
+            awaitHealthy(client, url);
+        }
+
+        System.out.printf("Warming up for %ds with %d clients%n", warmup, concurrency);
+        run(client, url, routes, concurrency, warmup);
+
+        List<Result> results;
+        if (inProcess) {
+            // one route at a time, so that the allocations of the JVM can be attributed to it
+            results = new ObjectArrayList<>();
+            for (Route route : routes) {
+                System.out.printf("Measuring %s for %ds%n", route.path(), duration);
+                results.addAll(run(client, url, List.of(route), concurrency, duration));
+            }
+        } else {
+            System.out.printf("Measuring for %ds%n", duration);
+            results = run(client, url, routes, concurrency, duration);
+        }
+
+        report(results, inProcess);
+
+        System.exit(0);
+    }
+
+    private static void awaitHealthy(HttpClient client, String url) throws InterruptedException {
+        var request = HttpRequest.newBuilder(URI.create(url + "/healthcheck")).build();
+        for (int i = 0; i < 120; i++) {
+            try {
+                if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200)
+                    return;
+            } catch (Exception ignored) {
+            }
+            Thread.sleep(1000);
+        }
+        throw new IllegalStateException("Server did not become healthy");
+    }
+
+    private static List<Result> run(HttpClient client, String url, List<Route> routes, int concurrency, int seconds)
+            throws InterruptedException {
+
+        int totalWeight = routes.stream().mapToInt(Route::weight).sum();
+
+        // every client records into its own lists, they are merged once the run is over
+        LongArrayList[][] latencies = new LongArrayList[concurrency][routes.size()];
+        long[][] errors = new long[concurrency][routes.size()];
+
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(seconds);
+
+        List<Thread> threads = new ObjectArrayList<>(concurrency);
+        for (int c = 0; c < concurrency; c++) {
+            final int worker = c;
+            for (int r = 0; r < routes.size(); r++)
+                latencies[c][r] = new LongArrayList();
+
+            threads.add(Thread.ofVirtual().start(() -> {
+                while (System.nanoTime() < deadline) {
+                    int r = pick(routes, ThreadLocalRandom.current().nextInt(totalWeight));
+                    var request = HttpRequest.newBuilder(URI.create(url + routes.get(r).path()))
+                            .timeout(Duration.ofSeconds(60))
+                            .build();
+
+                    long t = System.nanoTime();
+                    try {
+                        var response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                        if (response.statusCode() >= 400)
+                            errors[worker][r]++;
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (Exception e) {
+                        errors[worker][r]++;
+                    }
+                    latencies[worker][r].add(System.nanoTime() - t);
+                }
+            }));
+        }
+
+        for (Thread thread : threads)
+            thread.join();
+
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        List<Result> results = new ObjectArrayList<>(routes.size());
+        for (int r = 0; r < routes.size(); r++) {
+            LongArrayList merged = new LongArrayList();
+            long routeErrors = 0;
+            for (int c = 0; c < concurrency; c++) {
+                merged.addAll(latencies[c][r]);
+                routeErrors += errors[c][r];
+            }
+            merged.sort(null);
+            results.add(new Result(routes.get(r), merged, routeErrors, elapsed, allocated));
+        }
+
+        return results;
+    }
+
+    private static int pick(List<Route> routes, int value) {
+        for (int r = 0; r < routes.size(); r++) {
+            value -= routes.get(r).weight();
+            if (value < 0)
+                return r;
+        }
+        return routes.size() - 1;
+    }
+
+    /**
+     * Bytes allocated by all threads of this JVM so far, or -1 if the JVM can't tell.
+     */
+    private static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                && bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled())
+            return bean.getTotalThreadAllocatedBytes();
+        return -1;
+    }
+
+    private static void report(List<Result> results, boolean allocations) {
+        System.out.printf("%n%-60s %9s %7s %9s %9s %9s %9s %9s %9s%s%n", "route", "requests", "errors", "req/s",
+                "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", allocations ? "  alloc/req   alloc MB/s" : "");
+
+        long total = 0;
+        double seconds = 0;
+
+        for (Result result : results) {
+            LongArrayList l = result.latencies();
+            total += l.size();
+            seconds = allocations ? seconds + result.seconds() : result.seconds();
+
+            String line = String.format("%-60s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f",
+                    result.route().path(), l.size(), result.errors(), l.size() / result.seconds(),
+                    percentile(l, 0.5), percentile(l, 0.9), percentile(l, 0.99), percentile(l, 0.999),
+                    percentile(l, 1));
+
+            if (allocations && result.allocated() >= 0 && !l.isEmpty())
+                line += String.format("  %9s %11.1f", formatBytes(result.allocated() / l.size()),
+                        result.allocated() / result.seconds() / (1024 * 1024));
+
+            System.out.println(line);
+        }
+
+        System.out.printf("%nTotal: %d requests, %.1f req/s%n", total, total / seconds);
+        if (allocations)
+            System.out.println("Allocations include the load generator itself, which runs in the same JVM.");
+    }
+
+    private static double percentile(LongArrayList sorted, double percentile) {
+        if (sorted.isEmpty())
+            return 0;
+        int idx = (int) Math.ceil(percentile * sorted.size()) - 1;
+        return sorted.getLong(Math.max(0, idx)) / 1e6;
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024)
+            return bytes + " B";
+        if (bytes < 1024 * 1024)
+            return String.format("%.1f KB", bytes / 1024d);
+        return String.format("%.1f MB", bytes / (1024d * 1024));
+    }
+}
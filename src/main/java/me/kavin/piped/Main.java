@@ -18,6 +18,7 @@ import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.hibernate.Session;
 import org.hibernate.StatelessSession;
 import org.schabi.newpipe.extractor.NewPipe;
+import org.schabi.newpipe.extractor.downloader.Downloader;
 import org.schabi.newpipe.extractor.localization.ContentCountry;
 import org.schabi.newpipe.extractor.localization.Localization;
 import org.schabi.newpipe.extractor.services.youtube.YoutubeJavaScriptPlayerManager;
@@ -26,6 +27,7 @@ import org.schabi.newpipe.extractor.services.youtube.extractors.YoutubeStreamExt
 import org.schabi.newpipe.extractor.stream.StreamInfo;
 import rocks.kavin.reqwest4j.ReqwestUtils;
 
+import java.nio.file.Path;
 import java.security.Security;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
@@ -45,7 +47,17 @@ public class Main {
 
         ReqwestUtils.init(REQWEST_PROXY, REQWEST_PROXY_USER, REQWEST_PROXY_PASS);
 
-        NewPipe.init(new DownloaderImpl(), new Localization("en", "US"), ContentCountry.DEFAULT);
+        PwnedPasswords.init();
+
+        Downloader downloader = switch (DOWNLOADER_MODE) {
+            case "record" -> new RecordingDownloader(new DownloaderImpl(), Path.of(DOWNLOADER_ARCHIVE));
+            case "replay" -> new ReplayDownloader(Path.of(DOWNLOADER_ARCHIVE), DOWNLOADER_REPLAY_LATENCY);
+            case "live" -> new DownloaderImpl();
+            default -> throw new IllegalArgumentException("Unknown DOWNLOADER_MODE: " + DOWNLOADER_MODE
+                    + ", expected live, record or replay");
+        };
+
+        NewPipe.init(downloader, new Localization("en", "US"), ContentCountry.DEFAULT);
         if (!StringUtils.isEmpty(Constants.BG_HELPER_URL))
             YoutubeStreamExtractor.setPoTokenProvider(new BgPoTokenProvider(Constants.BG_HELPER_URL));
         YoutubeParsingHelper.setConsentAccepted(CONSENT_COOKIE);
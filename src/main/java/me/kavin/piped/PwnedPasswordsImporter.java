@@ -0,0 +1,100 @@
+package me.kavin.piped;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import me.kavin.piped.utils.PwnedPasswordsFile;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Converts a full SHA-1 Pwned Passwords dump, as written by the official PwnedPasswordsDownloader, into the
+ * memory-mapped format read by {@link PwnedPasswordsFile}.
+ * <p>
+ * The input has one {@code HASH:COUNT} line per hash, sorted by hash. Point {@code PWNED_PASSWORDS_FILE} at the output
+ * to check passwords without calling the API.
+ */
+public class PwnedPasswordsImporter {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: PwnedPasswordsImporter <pwnedpasswords.txt> <output file>");
+            System.exit(1);
+        }
+
+        Path input = Path.of(args[0]);
+        Path output = Path.of(args[1]);
+
+        long[] index = new long[PwnedPasswordsFile.PREFIXES + 1];
+        long entries = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.US_ASCII);
+             FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            channel.position(PwnedPasswordsFile.DATA_OFFSET);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+
+            LongArrayList range = new LongArrayList();
+            int current = 0;
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() < 5 + PwnedPasswordsFile.SUFFIX_LENGTH)
+                    continue;
+
+                int prefix = Integer.parseInt(line, 0, 5, 16);
+
+                if (prefix < current)
+                    throw new IllegalArgumentException("Input is not sorted by hash at line: " + line);
+
+                if (prefix != current) {
+                    entries += writeRange(out, range);
+                    for (int i = current + 1; i <= prefix; i++)
+                        index[i] = entries;
+                    current = prefix;
+                }
+
+                range.add(PwnedPasswordsFile.parseSuffix(line, 5));
+            }
+
+            entries += writeRange(out, range);
+            for (int i = current + 1; i <= PwnedPasswordsFile.PREFIXES; i++)
+                index[i] = entries;
+
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate((int) PwnedPasswordsFile.DATA_OFFSET);
+            header.put(PwnedPasswordsFile.MAGIC);
+            header.asLongBuffer().put(index);
+            header.clear();
+
+            channel.position(0);
+            while (header.hasRemaining())
+                channel.write(header);
+        }
+
+        System.out.printf("Imported %d hashes into %s%n", entries, output);
+    }
+
+    /**
+     * Writes the suffixes of one prefix in unsigned order, and clears them.
+     */
+    private static int writeRange(DataOutput out, LongArrayList range) throws IOException {
+        long[] suffixes = range.toLongArray();
+        // the lookup compares unsigned, so sort with the sign bit flipped
+        for (int i = 0; i < suffixes.length; i++)
+            suffixes[i] ^= Long.MIN_VALUE;
+        Arrays.sort(suffixes);
+        for (long suffix : suffixes)
+            out.writeLong(suffix ^ Long.MIN_VALUE);
+        range.clear();
+        return suffixes.length;
+    }
+}
@@ -102,6 +102,86 @@ public class Constants {
 
     public static final String BG_HELPER_URL;
 
+    public static final int STREAMS_CACHE_SIZE;
+
+    public static final int STREAMS_CACHE_TTL;
+
+    public static final int STREAMS_ENRICHMENT_TIMEOUT;
+
+    public static final int TRENDING_REFRESH_INTERVAL;
+
+    public static final int FEED_PAGE_SIZE;
+
+    public static final int SESSION_CACHE_TTL;
+
+    public static final int INGEST_BATCH_SIZE;
+
+    public static final int INGEST_FLUSH_INTERVAL;
+
+    public static final int PUBSUB_QUEUE_SIZE;
+
+    public static final int PUBSUB_CONCURRENCY;
+
+    public static final String DOWNLOADER_MODE;
+
+    public static final String DOWNLOADER_ARCHIVE;
+
+    public static final int DOWNLOADER_REPLAY_LATENCY;
+
+    public static final int COMPRESSION_MIN_SIZE;
+
+    public static final int ADMISSION_INITIAL_LIMIT;
+
+    public static final int ADMISSION_MAX_LIMIT;
+
+    public static final int ADMISSION_QUEUE_SIZE;
+
+    public static final int ADMISSION_QUEUE_TIMEOUT;
+
+    public static final int BULKHEAD_UPSTREAM_CONCURRENCY;
+
+    public static final int BULKHEAD_UPSTREAM_QUEUE;
+
+    public static final int BULKHEAD_DB_CONCURRENCY;
+
+    public static final int BULKHEAD_DB_QUEUE;
+
+    public static final int BULKHEAD_CPU_CONCURRENCY;
+
+    public static final int BULKHEAD_CPU_QUEUE;
+
+    public static final int PASSWORD_HASH_THREADS;
+
+    public static final int PASSWORD_HASH_QUEUE;
+
+    public static final int BULKHEAD_QUEUE_TIMEOUT;
+
+    public static final int PASSWORD_HASH_PER_CLIENT;
+
+    public static final String CLIENT_IP_HEADER;
+
+    public static final String PWNED_PASSWORDS_FILE;
+
+    public static final int PWNED_CACHE_SIZE;
+
+    public static final int PWNED_CACHE_TTL;
+
+    public static final int LBRY_BATCH_WINDOW;
+
+    public static final int LBRY_CACHE_SIZE;
+
+    public static final int RYD_CACHE_SIZE;
+
+    public static final int RYD_CACHE_REFRESH;
+
+    public static final int RYD_CACHE_TTL;
+
+    public static final int SPONSORBLOCK_CACHE_SIZE;
+
+    public static final int SPONSORBLOCK_CACHE_TTL;
+
+    public static final boolean METRICS_ENABLED;
+
     public static String YOUTUBE_COUNTRY;
 
     public static final String VERSION;
@@ -173,6 +253,46 @@ public class Constants {
             MATRIX_TOKEN = getProperty(prop, "MATRIX_TOKEN");
             GEO_RESTRICTION_CHECKER_URL = getProperty(prop, "GEO_RESTRICTION_CHECKER_URL");
             BG_HELPER_URL = getProperty(prop, "BG_HELPER_URL");
+            STREAMS_CACHE_SIZE = Integer.parseInt(getProperty(prop, "STREAMS_CACHE_SIZE", "500"));
+            STREAMS_CACHE_TTL = Integer.parseInt(getProperty(prop, "STREAMS_CACHE_TTL", "30"));
+            STREAMS_ENRICHMENT_TIMEOUT = Integer.parseInt(getProperty(prop, "STREAMS_ENRICHMENT_TIMEOUT", "3000"));
+            TRENDING_REFRESH_INTERVAL = Integer.parseInt(getProperty(prop, "TRENDING_REFRESH_INTERVAL", "30"));
+            FEED_PAGE_SIZE = Integer.parseInt(getProperty(prop, "FEED_PAGE_SIZE", "100"));
+            SESSION_CACHE_TTL = Integer.parseInt(getProperty(prop, "SESSION_CACHE_TTL", "60"));
+            INGEST_BATCH_SIZE = Integer.parseInt(getProperty(prop, "INGEST_BATCH_SIZE", "100"));
+            INGEST_FLUSH_INTERVAL = Integer.parseInt(getProperty(prop, "INGEST_FLUSH_INTERVAL", "1000"));
+            PUBSUB_QUEUE_SIZE = Integer.parseInt(getProperty(prop, "PUBSUB_QUEUE_SIZE", "10000"));
+            PUBSUB_CONCURRENCY = Integer.parseInt(getProperty(prop, "PUBSUB_CONCURRENCY", "64"));
+            DOWNLOADER_MODE = getProperty(prop, "DOWNLOADER_MODE", "live");
+            DOWNLOADER_ARCHIVE = getProperty(prop, "DOWNLOADER_ARCHIVE", "downloader-archive.bin.gz");
+            DOWNLOADER_REPLAY_LATENCY = Integer.parseInt(getProperty(prop, "DOWNLOADER_REPLAY_LATENCY", "0"));
+            COMPRESSION_MIN_SIZE = Integer.parseInt(getProperty(prop, "COMPRESSION_MIN_SIZE", "1024"));
+            ADMISSION_INITIAL_LIMIT = Integer.parseInt(getProperty(prop, "ADMISSION_INITIAL_LIMIT", "20"));
+            ADMISSION_MAX_LIMIT = Integer.parseInt(getProperty(prop, "ADMISSION_MAX_LIMIT", "200"));
+            ADMISSION_QUEUE_SIZE = Integer.parseInt(getProperty(prop, "ADMISSION_QUEUE_SIZE", "50"));
+            ADMISSION_QUEUE_TIMEOUT = Integer.parseInt(getProperty(prop, "ADMISSION_QUEUE_TIMEOUT", "1000"));
+            BULKHEAD_UPSTREAM_CONCURRENCY = Integer.parseInt(getProperty(prop, "BULKHEAD_UPSTREAM_CONCURRENCY", "256"));
+            BULKHEAD_UPSTREAM_QUEUE = Integer.parseInt(getProperty(prop, "BULKHEAD_UPSTREAM_QUEUE", "256"));
+            BULKHEAD_DB_CONCURRENCY = Integer.parseInt(getProperty(prop, "BULKHEAD_DB_CONCURRENCY", "32"));
+            BULKHEAD_DB_QUEUE = Integer.parseInt(getProperty(prop, "BULKHEAD_DB_QUEUE", "256"));
+            BULKHEAD_CPU_CONCURRENCY = Integer.parseInt(getProperty(prop, "BULKHEAD_CPU_CONCURRENCY", "0"));
+            BULKHEAD_CPU_QUEUE = Integer.parseInt(getProperty(prop, "BULKHEAD_CPU_QUEUE", "64"));
+            PASSWORD_HASH_THREADS = Integer.parseInt(getProperty(prop, "PASSWORD_HASH_THREADS", "0"));
+            PASSWORD_HASH_QUEUE = Integer.parseInt(getProperty(prop, "PASSWORD_HASH_QUEUE", "64"));
+            BULKHEAD_QUEUE_TIMEOUT = Integer.parseInt(getProperty(prop, "BULKHEAD_QUEUE_TIMEOUT", "2000"));
+            PASSWORD_HASH_PER_CLIENT = Integer.parseInt(getProperty(prop, "PASSWORD_HASH_PER_CLIENT", "2"));
+            CLIENT_IP_HEADER = getProperty(prop, "CLIENT_IP_HEADER");
+            PWNED_PASSWORDS_FILE = getProperty(prop, "PWNED_PASSWORDS_FILE");
+            PWNED_CACHE_SIZE = Integer.parseInt(getProperty(prop, "PWNED_CACHE_SIZE", "4096"));
+            PWNED_CACHE_TTL = Integer.parseInt(getProperty(prop, "PWNED_CACHE_TTL", "24"));
+            LBRY_BATCH_WINDOW = Integer.parseInt(getProperty(prop, "LBRY_BATCH_WINDOW", "5"));
+            LBRY_CACHE_SIZE = Integer.parseInt(getProperty(prop, "LBRY_CACHE_SIZE", "50000"));
+            RYD_CACHE_SIZE = Integer.parseInt(getProperty(prop, "RYD_CACHE_SIZE", "50000"));
+            RYD_CACHE_REFRESH = Integer.parseInt(getProperty(prop, "RYD_CACHE_REFRESH", "10"));
+            RYD_CACHE_TTL = Integer.parseInt(getProperty(prop, "RYD_CACHE_TTL", "1440"));
+            SPONSORBLOCK_CACHE_SIZE = Integer.parseInt(getProperty(prop, "SPONSORBLOCK_CACHE_SIZE", "10000"));
+            SPONSORBLOCK_CACHE_TTL = Integer.parseInt(getProperty(prop, "SPONSORBLOCK_CACHE_TTL", "300"));
+            METRICS_ENABLED = Boolean.parseBoolean(getProperty(prop, "METRICS_ENABLED", "false"));
             prop.forEach((_key, _value) -> {
                 String key = String.valueOf(_key), value = String.valueOf(_value);
                 if (key.startsWith("hibernate"))
@@ -3,6 +3,7 @@ package me.kavin.piped.server;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import io.activej.config.Config;
+import io.activej.csp.ChannelSupplier;
 import io.activej.http.*;
 import io.activej.inject.annotation.Provides;
 import io.activej.inject.module.AbstractModule;
@@ -21,7 +22,10 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.hibernate.Session;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.util.Objects;
 import java.util.concurrent.Executor;
@@ -36,6 +40,19 @@ public class ServerLauncher extends MultithreadedHttpServerLauncher {
 
     private static final HttpHeader FILE_NAME = HttpHeaders.of("x-file-name");
     private static final HttpHeader LAST_ETAG = HttpHeaders.of("x-last-etag");
+    private static final HttpHeader SERVER_TIMING = HttpHeaders.of("Server-Timing");
+    private static final HttpHeader CLIENT_IP_HEADER = StringUtils.isEmpty(Constants.CLIENT_IP_HEADER)
+            ? null : HttpHeaders.of(Constants.CLIENT_IP_HEADER);
+
+    private static final byte[] SERVICE_UNAVAILABLE;
+
+    static {
+        try {
+            SERVICE_UNAVAILABLE = mapper.writeValueAsBytes(new ServiceUnavailableResponse());
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
     @Provides
     Executor executor() {
@@ -45,21 +62,27 @@ public class ServerLauncher extends MultithreadedHttpServerLauncher {
     @Provides
     AsyncServlet mainServlet(Executor executor) {
 
-        RoutingServlet router = RoutingServlet.create()
+        MeteredRoutingServlet router = MeteredRoutingServlet.create()
                 .map(GET, "/healthcheck", AsyncServlet.ofBlocking(executor, request -> {
                     try (Session ignored = DatabaseSessionFactory.createSession()) {
-                        return getRawResponse("OK".getBytes(UTF_8), "text/plain", "no-store");
+                        return getRawResponse(request, "OK".getBytes(UTF_8), "text/plain", "no-store");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
                 })).map(GET, "/config", AsyncServlet.ofBlocking(executor, request -> {
                     try {
-                        return getJsonResponse(GenericHandlers.configResponse(), "public, max-age=86400");
+                        return getJsonResponse(request, GenericHandlers.configResponse(), "public, max-age=86400");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
                 }))
-                .map(GET, "/version", AsyncServlet.ofBlocking(executor, request -> getRawResponse(Constants.VERSION.getBytes(UTF_8), "text/plain", "no-store")))
+                .map(GET, "/version", AsyncServlet.ofBlocking(executor, request -> getRawResponse(request, Constants.VERSION.getBytes(UTF_8), "text/plain", "no-store")))
+                .map(GET, "/metrics", AsyncServlet.ofBlocking(executor, request -> {
+                    // the metrics reveal load and usage, so they are only served when asked for
+                    if (!Constants.METRICS_ENABLED)
+                        return HttpResponse.ofCode(404);
+                    return getRawResponse(request, MetricsHandlers.metricsResponse(), "text/plain; version=0.0.4; charset=utf-8", "no-store");
+                }))
                 .map(HttpMethod.OPTIONS, "/*", request -> HttpResponse.ofCode(200))
                 .map(GET, "/webhooks/pubsub", AsyncServlet.ofBlocking(executor, request -> {
                     var topic = request.getQueryParameter("hub.topic");
@@ -82,20 +105,20 @@ public class ServerLauncher extends MultithreadedHttpServerLauncher {
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(GET, "/sponsors/:videoId", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/sponsors/:videoId", limited(executor, "/sponsors/:videoId", request -> {
                     try {
-                        return getJsonResponse(
+                        return getJsonResponse(request,
                                 SponsorBlockUtils.getSponsors(request.getPathParameter("videoId"),
                                         request.getQueryParameter("category"), request.getQueryParameter("actionType")).getBytes(UTF_8),
                                 "public, max-age=3600");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(GET, "/dearrow", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/dearrow", limited(executor, "/dearrow", request -> {
                     try {
                         var videoIds = getArray(request.getQueryParameter("videoIds"));
 
-                        return getJsonResponse(
+                        return getJsonResponse(request,
                                 SponsorBlockUtils.getDeArrowedInfo(videoIds)
                                         .thenApplyAsync(json -> {
                                             try {
@@ -108,297 +131,316 @@ public class ServerLauncher extends MultithreadedHttpServerLauncher {
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(GET, "/streams/:videoId", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/streams/:videoId", limited(executor, "/streams/:videoId", request -> {
                     try {
-                        return getJsonResponse(StreamHandlers.streamsResponse(request.getPathParameter("videoId")),
+                        return getJsonResponse(request, StreamHandlers.streamsResponse(request.getPathParameter("videoId")),
                                 "public, s-maxage=21540, max-age=30", true);
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(GET, "/clips/:clipId", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/clips/:clipId", limited(executor, "/clips/:clipId", request -> {
                     try {
-                        return getJsonResponse(StreamHandlers.resolveClipId(request.getPathParameter("clipId")),
+                        return getJsonResponse(request, StreamHandlers.resolveClipId(request.getPathParameter("clipId")),
                                 "public, max-age=31536000, immutable");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(GET, "/channel/:channelId", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/channel/:channelId", limited(executor, "/channel/:channelId", request -> {
                     try {
-                        return getJsonResponse(
+                        return getJsonResponse(request,
                                 ChannelHandlers.channelResponse("channel/" + request.getPathParameter("channelId")),
                                 "public, max-age=600", true);
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(GET, "/c/:name", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/c/:name", limited(executor, "/c/:name", request -> {
                     try {
-                        return getJsonResponse(ChannelHandlers.channelResponse("c/" + request.getPathParameter("name")),
+                        return getJsonResponse(request, ChannelHandlers.channelResponse("c/" + request.getPathParameter("name")),
                                 "public, max-age=600", true);
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(GET, "/user/:name", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/user/:name", limited(executor, "/user/:name", request -> {
                     try {
-                        return getJsonResponse(
+                        return getJsonResponse(request,
                                 ChannelHandlers.channelResponse("user/" + request.getPathParameter("name")),
                                 "public, max-age=600", true);
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(GET, "/@/:handle", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/@/:handle", limited(executor, "/@/:handle", request -> {
                     try {
-                        return getJsonResponse(
+                        return getJsonResponse(request,
                                 ChannelHandlers.channelResponse("@" + request.getPathParameter("handle")),
                                 "public, max-age=600", true);
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(GET, "/nextpage/channel/:channelId", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/nextpage/channel/:channelId", limited(executor, "/nextpage/channel/:channelId", request -> {
                     try {
-                        return getJsonResponse(ChannelHandlers.channelPageResponse(request.getPathParameter("channelId"),
+                        return getJsonResponse(request, ChannelHandlers.channelPageResponse(request.getPathParameter("channelId"),
                                 request.getQueryParameter("nextpage")), "public, max-age=3600", true);
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(GET, "/channels/tabs", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/channels/tabs", limited(executor, "/channels/tabs", request -> {
                     try {
                         String nextpage = request.getQueryParameter("nextpage");
                         if (StringUtils.isEmpty(nextpage))
-                            return getJsonResponse(ChannelHandlers.channelTabResponse(request.getQueryParameter("data")), "public, max-age=3600", true);
+                            return getJsonResponse(request, ChannelHandlers.channelTabResponse(request.getQueryParameter("data")), "public, max-age=3600", true);
                         else
-                            return getJsonResponse(ChannelHandlers.channelTabPageResponse(request.getQueryParameter("data"), nextpage), "public, max-age=3600", true);
+                            return getJsonResponse(request, ChannelHandlers.channelTabPageResponse(request.getQueryParameter("data"), nextpage), "public, max-age=3600", true);
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(GET, "/playlists/:playlistId", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/playlists/:playlistId", limited(executor, "/playlists/:playlistId", request -> {
                     try {
                         var playlistId = request.getPathParameter("playlistId");
                         var cache = StringUtils.isBlank(playlistId) || playlistId.length() != 36 ?
                                 "public, max-age=600" : "private";
-                        return getJsonResponse(me.kavin.piped.server.handlers.PlaylistHandlers.playlistResponse(playlistId), cache, true);
+                        return getJsonResponse(request, me.kavin.piped.server.handlers.PlaylistHandlers.playlistResponse(playlistId), cache, true);
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(GET, "/nextpage/playlists/:playlistId", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/nextpage/playlists/:playlistId", limited(executor, "/nextpage/playlists/:playlistId", request -> {
                     try {
-                        return getJsonResponse(
+                        return getJsonResponse(request,
                                 me.kavin.piped.server.handlers.PlaylistHandlers.playlistPageResponse(request.getPathParameter("playlistId"),
                                         request.getQueryParameter("nextpage")),
                                 "public, max-age=3600", true);
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(GET, "/rss/playlists/:playlistId", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/rss/playlists/:playlistId", limited(executor, "/rss/playlists/:playlistId", request -> {
                     try {
-                        return getRawResponse(
+                        return getRawResponse(request,
                                 me.kavin.piped.server.handlers.PlaylistHandlers.playlistRSSResponse(request.getPathParameter("playlistId")),
                                 "application/atom+xml", "public, s-maxage=600");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
                     // TODO: Replace with opensearch, below, for caching reasons.
-                })).map(GET, "/suggestions", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/suggestions", limited(executor, "/suggestions", request -> {
                     try {
-                        return getJsonResponse(SearchHandlers.suggestionsResponse(request.getQueryParameter("query")),
+                        return getJsonResponse(request, SearchHandlers.suggestionsResponse(request.getQueryParameter("query")),
                                 "public, max-age=600");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(GET, "/opensearch/suggestions", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/opensearch/suggestions", limited(executor, "/opensearch/suggestions", request -> {
                     try {
-                        return getJsonResponse(
+                        return getJsonResponse(request,
                                 SearchHandlers.opensearchSuggestionsResponse(request.getQueryParameter("query")),
                                 "public, max-age=600");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(GET, "/search", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/search", limited(executor, "/search", request -> {
                     try {
-                        return getJsonResponse(SearchHandlers.searchResponse(request.getQueryParameter("q"),
+                        return getJsonResponse(request, SearchHandlers.searchResponse(request.getQueryParameter("q"),
                                 request.getQueryParameter("filter")), "public, max-age=600", true);
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(GET, "/nextpage/search", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/nextpage/search", limited(executor, "/nextpage/search", request -> {
                     try {
-                        return getJsonResponse(
+                        return getJsonResponse(request,
                                 SearchHandlers.searchPageResponse(request.getQueryParameter("q"),
                                         request.getQueryParameter("filter"), request.getQueryParameter("nextpage")),
                                 "public, max-age=3600", true);
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(GET, "/trending", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/trending", limited(executor, "/trending", request -> {
                     try {
-                        return getJsonResponse(TrendingHandlers.trendingResponse(request.getQueryParameter("region")),
+                        return getJsonResponse(request, TrendingHandlers.trendingResponse(request.getQueryParameter("region")),
                                 "public, max-age=3600", true);
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(GET, "/comments/:videoId", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/comments/:videoId", limited(executor, "/comments/:videoId", request -> {
                     try {
-                        return getJsonResponse(StreamHandlers.commentsResponse(request.getPathParameter("videoId")),
+                        return getJsonResponse(request, StreamHandlers.commentsResponse(request.getPathParameter("videoId")),
                                 "public, max-age=1200", true);
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(GET, "/nextpage/comments/:videoId", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/nextpage/comments/:videoId", limited(executor, "/nextpage/comments/:videoId", request -> {
                     try {
-                        return getJsonResponse(StreamHandlers.commentsPageResponse(request.getPathParameter("videoId"),
+                        return getJsonResponse(request, StreamHandlers.commentsPageResponse(request.getPathParameter("videoId"),
                                 request.getQueryParameter("nextpage")), "public, max-age=3600", true);
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(POST, "/register", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(POST, "/register", isolated(executor, Multithreading.getCpuBulkhead(), request -> {
                     try {
                         LoginRequest body = mapper.readValue(request.loadBody().getResult().asArray(),
                                 LoginRequest.class);
-                        return getJsonResponse(UserHandlers.registerResponse(body.username, body.password),
+                        return getJsonResponse(request, UserHandlers.registerResponse(body.username, body.password, getClientIp(request)),
                                 "private");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(POST, "/login", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(POST, "/login", isolated(executor, Multithreading.getCpuBulkhead(), request -> {
                     try {
                         LoginRequest body = mapper.readValue(request.loadBody().getResult().asArray(),
                                 LoginRequest.class);
-                        return getJsonResponse(UserHandlers.loginResponse(body.username, body.password), "private");
+                        return getJsonResponse(request, UserHandlers.loginResponse(body.username, body.password, getClientIp(request)), "private");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(POST, "/subscribe", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(POST, "/subscribe", isolated(executor, Multithreading.getDbBulkhead(), request -> {
                     try {
                         SubscriptionUpdateRequest body = mapper
                                 .readValue(request.loadBody().getResult().asArray(), SubscriptionUpdateRequest.class);
-                        return getJsonResponse(
+                        return getJsonResponse(request,
                                 FeedHandlers.subscribeResponse(request.getHeader(AUTHORIZATION), body.channelId),
                                 "private");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(POST, "/unsubscribe", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(POST, "/unsubscribe", isolated(executor, Multithreading.getDbBulkhead(), request -> {
                     try {
                         SubscriptionUpdateRequest body = mapper
                                 .readValue(request.loadBody().getResult().asArray(), SubscriptionUpdateRequest.class);
-                        return getJsonResponse(
+                        return getJsonResponse(request,
                                 FeedHandlers.unsubscribeResponse(request.getHeader(AUTHORIZATION), body.channelId),
                                 "private");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(GET, "/subscribed", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/subscribed", isolated(executor, Multithreading.getDbBulkhead(), request -> {
                     try {
-                        return getJsonResponse(FeedHandlers.isSubscribedResponse(request.getHeader(AUTHORIZATION),
+                        return getJsonResponse(request, FeedHandlers.isSubscribedResponse(request.getHeader(AUTHORIZATION),
                                 request.getQueryParameter("channelId")), "private");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(GET, "/feed", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/feed", isolatedStream(executor, Multithreading.getDbBulkhead(), (request, body) -> {
                     try {
-                        return getJsonResponse(FeedHandlers.feedResponse(request.getQueryParameter("authToken")),
-                                "private");
+                        String authToken = request.getQueryParameter("authToken");
+                        String etag = FeedHandlers.feedETag(authToken);
+                        if (isNotModified(request, etag))
+                            return getNotModifiedResponse(etag, "private");
+                        FeedHandlers.feedResponse(authToken, body);
+                        return getJsonResponse(body, "private")
+                                .withHeader(ETAG, etag);
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(GET, "/feed/rss", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/feed/paginated", isolated(executor, Multithreading.getDbBulkhead(), request -> {
                     try {
-                        return getRawResponse(FeedHandlers.feedResponseRSS(request.getQueryParameter("authToken"),
+                        return getJsonResponse(request, FeedHandlers.feedPageResponse(request.getQueryParameter("authToken"),
+                                request.getQueryParameter("nextpage")), "private");
+                    } catch (Exception e) {
+                        return getErrorResponse(e, request.getPath());
+                    }
+                })).map(GET, "/feed/rss", isolated(executor, Multithreading.getDbBulkhead(), request -> {
+                    try {
+                        return getRawResponse(request, FeedHandlers.feedResponseRSS(request.getQueryParameter("authToken"),
                                         request.getQueryParameter("filter")),
                                 "application/atom+xml", "public, s-maxage=120");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(GET, "/feed/unauthenticated", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/feed/unauthenticated", isolatedStream(executor, Multithreading.getDbBulkhead(), (request, body) -> {
                     try {
-                        return getJsonResponse(FeedHandlers.unauthenticatedFeedResponse(
-                                getArray(request.getQueryParameter("channels"))
-                        ), "public, s-maxage=120");
+                        String[] channels = getArray(request.getQueryParameter("channels"));
+                        String etag = FeedHandlers.unauthenticatedFeedETag(channels);
+                        if (isNotModified(request, etag)) {
+                            FeedHandlers.unauthenticatedFeedNotModified(channels);
+                            return getNotModifiedResponse(etag, "public, s-maxage=120");
+                        }
+                        FeedHandlers.unauthenticatedFeedResponse(channels, body);
+                        return getJsonResponse(body, "public, s-maxage=120")
+                                .withHeader(ETAG, etag);
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(POST, "/feed/unauthenticated", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(POST, "/feed/unauthenticated", isolatedStream(executor, Multithreading.getDbBulkhead(), (request, body) -> {
                     try {
                         String[] subscriptions = mapper.readValue(request.loadBody().getResult().asArray(),
                                 String[].class);
-                        return getJsonResponse(FeedHandlers.unauthenticatedFeedResponse(subscriptions), "public, s-maxage=120");
+                        FeedHandlers.unauthenticatedFeedResponse(subscriptions, body);
+                        return getJsonResponse(body, "public, s-maxage=120");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(GET, "/feed/unauthenticated/rss", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/feed/unauthenticated/rss", isolated(executor, Multithreading.getDbBulkhead(), request -> {
                     try {
-                        return getRawResponse(FeedHandlers.unauthenticatedFeedResponseRSS(
+                        return getRawResponse(request, FeedHandlers.unauthenticatedFeedResponseRSS(
                                 getArray(request.getQueryParameter("channels")),
                                 request.getQueryParameter("filter")
                         ), "application/atom+xml", "public, s-maxage=120");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(POST, "/import", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(POST, "/import", isolated(executor, Multithreading.getDbBulkhead(), request -> {
                     try {
                         String[] subscriptions = mapper.readValue(request.loadBody().getResult().asArray(),
                                 String[].class);
-                        return getJsonResponse(FeedHandlers.importResponse(request.getHeader(AUTHORIZATION),
+                        return getJsonResponse(request, FeedHandlers.importResponse(request.getHeader(AUTHORIZATION),
                                 subscriptions, Boolean.parseBoolean(request.getQueryParameter("override"))), "private");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(POST, "/import/playlist", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(POST, "/import/playlist", isolated(executor, Multithreading.getUpstreamBulkhead(), request -> {
                     try {
                         var json = mapper.readTree(request.loadBody().getResult().asArray());
                         var playlistId = json.get("playlistId").textValue();
-                        return getJsonResponse(AuthPlaylistHandlers.importPlaylistResponse(request.getHeader(AUTHORIZATION), playlistId), "private");
+                        return getJsonResponse(request, AuthPlaylistHandlers.importPlaylistResponse(request.getHeader(AUTHORIZATION), playlistId), "private");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(GET, "/subscriptions", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/subscriptions", isolated(executor, Multithreading.getDbBulkhead(), request -> {
                     try {
-                        return getJsonResponse(FeedHandlers.subscriptionsResponse(request.getHeader(AUTHORIZATION)),
+                        return getTaggedJsonResponse(request, FeedHandlers.subscriptionsResponse(request.getHeader(AUTHORIZATION)),
                                 "private");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(GET, "/subscriptions/unauthenticated", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/subscriptions/unauthenticated", isolated(executor, Multithreading.getDbBulkhead(), request -> {
                     try {
-                        return getJsonResponse(FeedHandlers.unauthenticatedSubscriptionsResponse(
+                        return getTaggedJsonResponse(request, FeedHandlers.unauthenticatedSubscriptionsResponse(
                                 Objects.requireNonNull(request.getQueryParameter("channels")).split(",")
                         ), "public, s-maxage=120");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(POST, "/subscriptions/unauthenticated", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(POST, "/subscriptions/unauthenticated", isolated(executor, Multithreading.getDbBulkhead(), request -> {
                     try {
                         String[] subscriptions = mapper.readValue(request.loadBody().getResult().asArray(),
                                 String[].class);
-                        return getJsonResponse(FeedHandlers.unauthenticatedSubscriptionsResponse(subscriptions), "public, s-maxage=120");
+                        return getJsonResponse(request, FeedHandlers.unauthenticatedSubscriptionsResponse(subscriptions), "public, s-maxage=120");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(POST, "/user/playlists/create", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(POST, "/user/playlists/create", isolated(executor, Multithreading.getDbBulkhead(), request -> {
                     try {
                         var name = mapper.readTree(request.loadBody().getResult().asArray()).get("name").textValue();
-                        return getJsonResponse(AuthPlaylistHandlers.createPlaylist(request.getHeader(AUTHORIZATION), name), "private");
+                        return getJsonResponse(request, AuthPlaylistHandlers.createPlaylist(request.getHeader(AUTHORIZATION), name), "private");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(PATCH, "/user/playlists/description", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(PATCH, "/user/playlists/description", isolated(executor, Multithreading.getDbBulkhead(), request -> {
                     try {
                         var json = mapper.readTree(request.loadBody().getResult().asArray());
                         var playlistId = json.get("playlistId").textValue();
                         var description = json.get("description").textValue();
-                        return getJsonResponse(
+                        return getJsonResponse(request,
                                 AuthPlaylistHandlers.editPlaylistDescriptionResponse(request.getHeader(AUTHORIZATION),
                                         playlistId, description),
                                 "private");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(GET, "/user/playlists", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/user/playlists", isolated(executor, Multithreading.getDbBulkhead(), request -> {
                     try {
-                        return getJsonResponse(AuthPlaylistHandlers.playlistsResponse(request.getHeader(AUTHORIZATION)), "private");
+                        return getTaggedJsonResponse(request, AuthPlaylistHandlers.playlistsResponse(request.getHeader(AUTHORIZATION)), "private");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(POST, "/user/playlists/add", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(POST, "/user/playlists/add", isolated(executor, Multithreading.getUpstreamBulkhead(), request -> {
                     try {
                         var json = mapper.readTree(request.loadBody().getResult().asArray());
                         var playlistId = json.get("playlistId").textValue();
@@ -415,70 +457,70 @@ public class ServerLauncher extends MultithreadedHttpServerLauncher {
                             }
                         }
 
-                        return getJsonResponse(AuthPlaylistHandlers.addToPlaylistResponse(request.getHeader(AUTHORIZATION), playlistId, videoIds), "private");
+                        return getJsonResponse(request, AuthPlaylistHandlers.addToPlaylistResponse(request.getHeader(AUTHORIZATION), playlistId, videoIds), "private");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(POST, "/user/playlists/remove", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(POST, "/user/playlists/remove", isolated(executor, Multithreading.getDbBulkhead(), request -> {
                     try {
                         var json = mapper.readTree(request.loadBody().getResult().asArray());
                         var playlistId = json.get("playlistId").textValue();
                         var index = json.get("index").intValue();
-                        return getJsonResponse(AuthPlaylistHandlers.removeFromPlaylistResponse(request.getHeader(AUTHORIZATION), playlistId, index), "private");
+                        return getJsonResponse(request, AuthPlaylistHandlers.removeFromPlaylistResponse(request.getHeader(AUTHORIZATION), playlistId, index), "private");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(POST, "/user/playlists/clear", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(POST, "/user/playlists/clear", isolated(executor, Multithreading.getDbBulkhead(), request -> {
                     try {
                         var json = mapper.readTree(request.loadBody().getResult().asArray());
                         var playlistId = json.get("playlistId").textValue();
-                        return getJsonResponse(AuthPlaylistHandlers.clearPlaylistResponse(request.getHeader(AUTHORIZATION), playlistId), "private");
+                        return getJsonResponse(request, AuthPlaylistHandlers.clearPlaylistResponse(request.getHeader(AUTHORIZATION), playlistId), "private");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(POST, "/user/playlists/rename", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(POST, "/user/playlists/rename", isolated(executor, Multithreading.getDbBulkhead(), request -> {
                     try {
                         var json = mapper.readTree(request.loadBody().getResult().asArray());
                         var playlistId = json.get("playlistId").textValue();
                         var newName = json.get("newName").textValue();
-                        return getJsonResponse(AuthPlaylistHandlers.renamePlaylistResponse(request.getHeader(AUTHORIZATION), playlistId, newName), "private");
+                        return getJsonResponse(request, AuthPlaylistHandlers.renamePlaylistResponse(request.getHeader(AUTHORIZATION), playlistId, newName), "private");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(POST, "/user/playlists/delete", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(POST, "/user/playlists/delete", isolated(executor, Multithreading.getDbBulkhead(), request -> {
                     try {
                         var json = mapper.readTree(request.loadBody().getResult().asArray());
                         var playlistId = json.get("playlistId").textValue();
-                        return getJsonResponse(AuthPlaylistHandlers.deletePlaylistResponse(request.getHeader(AUTHORIZATION), playlistId), "private");
+                        return getJsonResponse(request, AuthPlaylistHandlers.deletePlaylistResponse(request.getHeader(AUTHORIZATION), playlistId), "private");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(GET, "/registered/badge", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(GET, "/registered/badge", isolated(executor, Multithreading.getDbBulkhead(), request -> {
                     try {
                         return HttpResponse.ofCode(302).withHeader(LOCATION, GenericHandlers.registeredBadgeRedirect())
                                 .withHeader(CACHE_CONTROL, "public, max-age=30");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(POST, "/user/delete", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(POST, "/user/delete", isolated(executor, Multithreading.getCpuBulkhead(), request -> {
                     try {
                         DeleteUserRequest body = mapper.readValue(request.loadBody().getResult().asArray(),
                                 DeleteUserRequest.class);
-                        return getJsonResponse(UserHandlers.deleteUserResponse(request.getHeader(AUTHORIZATION), body.password),
+                        return getJsonResponse(request, UserHandlers.deleteUserResponse(request.getHeader(AUTHORIZATION), body.password, getClientIp(request)),
                                 "private");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
-                })).map(POST, "/logout", AsyncServlet.ofBlocking(executor, request -> {
+                })).map(POST, "/logout", isolated(executor, Multithreading.getDbBulkhead(), request -> {
                     try {
-                        return getJsonResponse(UserHandlers.logoutResponse(request.getHeader(AUTHORIZATION)), "private");
+                        return getJsonResponse(request, UserHandlers.logoutResponse(request.getHeader(AUTHORIZATION)), "private");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
                 })).map(GET, "/storage/stat", AsyncServlet.ofBlocking(executor, request -> {
                     try {
                         var file = request.getQueryParameter("file");
-                        return getJsonResponse(StorageHandlers.statFile(request.getHeader(AUTHORIZATION), file), "private");
+                        return getJsonResponse(request, StorageHandlers.statFile(request.getHeader(AUTHORIZATION), file), "private");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
@@ -489,14 +531,14 @@ public class ServerLauncher extends MultithreadedHttpServerLauncher {
                         String fileName = request.getHeader(FILE_NAME);
                         String etag = request.getHeader(LAST_ETAG);
 
-                        return getJsonResponse(StorageHandlers.putFile(request.getHeader(AUTHORIZATION), fileName, etag, data), "private");
+                        return getJsonResponse(request, StorageHandlers.putFile(request.getHeader(AUTHORIZATION), fileName, etag, data), "private");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
                 })).map(GET, "/storage/get", AsyncServlet.ofBlocking(executor, request -> {
                     try {
                         var file = request.getQueryParameter("file");
-                        return getRawResponse(StorageHandlers.getFile(request.getHeader(AUTHORIZATION), file), "application/octet-stream", "private");
+                        return getRawResponse(request, StorageHandlers.getFile(request.getHeader(AUTHORIZATION), file), "application/octet-stream", "private");
                     } catch (Exception e) {
                         return getErrorResponse(e, request.getPath());
                     }
@@ -506,6 +548,98 @@ public class ServerLauncher extends MultithreadedHttpServerLauncher {
         return new CustomServletDecorator(router);
     }
 
+    /**
+     * Runs the servlet under the adaptive concurrency limit of the route, answering with a 503 when it's saturated.
+     * Only routes that call out to upstream services are limited, as those are what piles up under a surge.
+     */
+    private AsyncServlet limited(Executor executor, String route, BlockingServlet servlet) {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.of(route);
+        return AsyncServlet.ofBlocking(executor, request -> {
+            if (!limiter.acquire())
+                return getJsonResponse(503, SERVICE_UNAVAILABLE, "private")
+                        .withHeader(RETRY_AFTER, "1");
+
+            long start = System.nanoTime();
+            HttpResponse response = null;
+            try {
+                response = Multithreading.getUpstreamBulkhead().call(() -> servlet.serve(request));
+                return response;
+            } catch (Exception e) {
+                response = getErrorResponse(e, request.getPath());
+                return response;
+            } finally {
+                int code = response == null ? 500 : response.getCode();
+                if (ConcurrencyLimiter.takeCacheHit() && code < 500)
+                    limiter.releaseCacheHit();
+                else
+                    limiter.release(System.nanoTime() - start, code >= 502 && code <= 504);
+            }
+        });
+    }
+
+    /**
+     * Runs the servlet in the given bulkhead, so that it only competes with requests that depend on the same resources.
+     */
+    private AsyncServlet isolated(Executor executor, Bulkhead bulkhead, BlockingServlet servlet) {
+        return AsyncServlet.ofBlocking(executor, request -> {
+            try {
+                return bulkhead.call(() -> servlet.serve(request));
+            } catch (Exception e) {
+                return getErrorResponse(e, request.getPath());
+            }
+        });
+    }
+
+    /**
+     * Like {@link #isolated(Executor, Bulkhead, BlockingServlet)}, but the permit is held until the streamed body has
+     * been written, as its writer keeps using the resources of the bulkhead after the response has been returned.
+     */
+    private AsyncServlet isolatedStream(Executor executor, Bulkhead bulkhead, StreamingServlet servlet) {
+        return AsyncServlet.ofBlocking(executor, request -> {
+            try {
+                bulkhead.acquire();
+            } catch (Exception e) {
+                return getErrorResponse(e, request.getPath());
+            }
+
+            StreamedBody body = new StreamedBody(acceptsGzip(request));
+            body.whenDone(bulkhead::release);
+
+            try {
+                return servlet.serve(request, body);
+            } catch (Exception e) {
+                return getErrorResponse(e, request.getPath());
+            } finally {
+                // a response without the body, like a 304 or an error, has no writer to release the permit
+                body.discardIfUnused();
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface StreamingServlet {
+        /**
+         * @param body a body for the response, in the encoding the client accepts
+         */
+        HttpResponse serve(HttpRequest request, StreamedBody body) throws Exception;
+    }
+
+    /**
+     * The client's address, as reported by the reverse proxy, or null if {@code CLIENT_IP_HEADER} isn't set. The peer
+     * address isn't used, as behind a proxy it is the same for every client.
+     */
+    private static @Nullable String getClientIp(HttpRequest request) {
+        if (CLIENT_IP_HEADER == null)
+            return null;
+
+        String value = request.getHeader(CLIENT_IP_HEADER);
+        if (StringUtils.isBlank(value))
+            return null;
+
+        // the proxy appends the address it saw, anything before it comes from the client
+        return StringUtils.trimToNull(value.substring(value.lastIndexOf(',') + 1));
+    }
+
     private static String[] getArray(String s) {
 
         if (s == null) {
@@ -529,12 +663,46 @@ public class ServerLauncher extends MultithreadedHttpServerLauncher {
         };
     }
 
-    private @NotNull HttpResponse getJsonResponse(byte[] body, String cache) {
-        return getJsonResponse(200, body, cache, false);
+    private @NotNull HttpResponse getJsonResponse(HttpRequest request, byte[] body, String cache) {
+        return getJsonResponse(request, body, cache, false);
+    }
+
+    private @NotNull HttpResponse getJsonResponse(HttpRequest request, byte[] body, String cache, boolean prefetchProxy) {
+        return getRawResponse(request, 200, body, "application/json", cache, prefetchProxy);
     }
 
-    private @NotNull HttpResponse getJsonResponse(byte[] body, String cache, boolean prefetchProxy) {
-        return getJsonResponse(200, body, cache, prefetchProxy);
+    private @NotNull HttpResponse getJsonResponse(HttpRequest request, CompressedBody body, String cache) {
+        return getJsonResponse(request, body, cache, false);
+    }
+
+    private @NotNull HttpResponse getJsonResponse(HttpRequest request, CompressedBody body, String cache, boolean prefetchProxy) {
+        if (body.gzip() != null && ResponseCompression.acceptsGzip(request.getHeader(ACCEPT_ENCODING)))
+            return getRawResponse(200, body.gzip(), "application/json", cache, prefetchProxy)
+                    .withHeader(CONTENT_ENCODING, "gzip")
+                    .withHeader(VARY, "Accept-Encoding");
+
+        return getJsonResponse(request, body.body(), cache, prefetchProxy);
+    }
+
+    private boolean acceptsGzip(HttpRequest request) {
+        return ResponseCompression.acceptsGzip(request.getHeader(ACCEPT_ENCODING));
+    }
+
+    /**
+     * The body must have been created with {@link #acceptsGzip(HttpRequest)} for this request, as by
+     * {@link #isolatedStream(Executor, Bulkhead, StreamingServlet)}.
+     */
+    private @NotNull HttpResponse getJsonResponse(StreamedBody body, String cache) {
+        HttpResponse response = HttpResponse.ok200()
+                .withBodyStream(ChannelSupplier.ofInputStream(Multithreading.getCachedExecutor(), body.getInputStream()))
+                .withHeader(CONTENT_TYPE, "application/json")
+                .withHeader(CACHE_CONTROL, cache)
+                .withHeader(VARY, "Accept-Encoding");
+
+        if (body.isGzip())
+            response = response.withHeader(CONTENT_ENCODING, "gzip");
+
+        return withServerTiming(response);
     }
 
     private @NotNull HttpResponse getJsonResponse(int code, byte[] body, String cache) {
@@ -545,8 +713,54 @@ public class ServerLauncher extends MultithreadedHttpServerLauncher {
         return getRawResponse(code, body, "application/json", cache, prefetchProxy);
     }
 
-    private @NotNull HttpResponse getRawResponse(byte[] body, String contentType, String cache) {
-        return getRawResponse(200, body, contentType, cache, false);
+    /**
+     * Tags the response with an ETag of its body. This saves the transfer, not the work of building the body.
+     */
+    private @NotNull HttpResponse getTaggedJsonResponse(HttpRequest request, byte[] body, String cache) {
+        String etag = ETags.of(body);
+
+        if (isNotModified(request, etag))
+            return getNotModifiedResponse(etag, cache);
+
+        return getJsonResponse(request, body, cache).withHeader(ETAG, etag);
+    }
+
+    private boolean isNotModified(HttpRequest request, String etag) {
+        return ETags.matches(request.getHeader(IF_NONE_MATCH), etag);
+    }
+
+    private @NotNull HttpResponse getNotModifiedResponse(String etag, String cache) {
+        return withServerTiming(HttpResponse.ofCode(304)
+                .withHeader(ETAG, etag)
+                .withHeader(CACHE_CONTROL, cache)
+                .withHeader(VARY, "Accept-Encoding"));
+    }
+
+    private @NotNull HttpResponse getRawResponse(HttpRequest request, byte[] body, String contentType, String cache) {
+        return getRawResponse(request, 200, body, contentType, cache, false);
+    }
+
+    /**
+     * Compresses the body if it is worth it and the client accepts it. This runs on the blocking executor, which keeps
+     * compression off the event loop.
+     */
+    private @NotNull HttpResponse getRawResponse(HttpRequest request, int code, byte[] body, String contentType,
+                                                 String cache, boolean prefetchProxy) {
+        if (!ResponseCompression.shouldCompress(contentType, body.length))
+            return getRawResponse(code, body, contentType, cache, prefetchProxy);
+
+        if (!ResponseCompression.acceptsGzip(request.getHeader(ACCEPT_ENCODING)))
+            return getRawResponse(code, body, contentType, cache, prefetchProxy)
+                    .withHeader(VARY, "Accept-Encoding");
+
+        byte[] gzip;
+        try (var ignored = ServerTiming.phase("compress")) {
+            gzip = ResponseCompression.gzip(body);
+        }
+
+        return getRawResponse(code, gzip, contentType, cache, prefetchProxy)
+                .withHeader(CONTENT_ENCODING, "gzip")
+                .withHeader(VARY, "Accept-Encoding");
     }
 
     private @NotNull HttpResponse getRawResponse(int code, byte[] body, String contentType, String cache,
@@ -555,7 +769,15 @@ public class ServerLauncher extends MultithreadedHttpServerLauncher {
                 .withHeader(CACHE_CONTROL, cache);
         if (prefetchProxy)
             response = response.withHeader(LINK, String.format("<%s>; rel=preconnect", Constants.IMAGE_PROXY_PART));
-        return response;
+        return withServerTiming(response);
+    }
+
+    /**
+     * Adds the phases recorded by the handler, the overall {@code app} duration is added by {@link CustomServletDecorator}.
+     */
+    private @NotNull HttpResponse withServerTiming(HttpResponse response) {
+        String timing = ServerTiming.drain();
+        return timing == null ? response : response.withHeader(SERVER_TIMING, timing);
     }
 
     private @NotNull HttpResponse getErrorResponse(Exception e, String path) {
@@ -563,7 +785,10 @@ public class ServerLauncher extends MultithreadedHttpServerLauncher {
         e = ExceptionHandler.handle(e, path);
 
         if (e instanceof ErrorResponse error) {
-            return getJsonResponse(error.getCode(), error.getContent(), "private");
+            HttpResponse response = getJsonResponse(error.getCode(), error.getContent(), "private");
+            if (error.getCode() == 503)
+                response = response.withHeader(RETRY_AFTER, "1");
+            return response;
         }
 
         try {
@@ -0,0 +1,166 @@
+package me.kavin.piped.server.handlers;
+
+import com.zaxxer.hikari.HikariPoolMXBean;
+import me.kavin.piped.utils.*;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Renders the in-process metrics in the Prometheus text exposition format.
+ */
+public class MetricsHandlers {
+
+    public static byte[] metricsResponse() {
+        StringBuilder sb = new StringBuilder(16384);
+
+        var routes = RouteMetrics.getRoutes().values();
+
+        header(sb, "piped_http_requests_total", "counter", "HTTP requests served, by route and status class");
+        for (RouteMetrics route : routes)
+            for (int statusClass = 1; statusClass <= 5; statusClass++) {
+                long count = route.getStatusCount(statusClass);
+                if (count != 0)
+                    sb.append("piped_http_requests_total{").append(labels(route)).append(",status=\"")
+                            .append(statusClass).append("xx\"} ").append(count).append('\n');
+            }
+
+        header(sb, "piped_http_requests_in_flight", "gauge", "HTTP requests currently being served, by route");
+        for (RouteMetrics route : routes)
+            sample(sb, "piped_http_requests_in_flight{" + labels(route) + "}", route.getInFlight());
+
+        header(sb, "piped_http_request_duration_seconds", "histogram", "Time until the response headers were ready, by route");
+        for (RouteMetrics route : routes) {
+            long[] buckets = route.getBuckets();
+            String labels = labels(route);
+            long cumulative = 0;
+            for (int i = 0; i < RouteMetrics.BUCKETS.length; i++) {
+                cumulative += buckets[i];
+                sb.append("piped_http_request_duration_seconds_bucket{").append(labels).append(",le=\"")
+                        .append(RouteMetrics.BUCKETS[i] / 1e9).append("\"} ").append(cumulative).append('\n');
+            }
+            cumulative += buckets[buckets.length - 1];
+            sb.append("piped_http_request_duration_seconds_bucket{").append(labels).append(",le=\"+Inf\"} ")
+                    .append(cumulative).append('\n');
+            sb.append("piped_http_request_duration_seconds_sum{").append(labels).append("} ")
+                    .append(route.getSum() / 1e9).append('\n');
+            sb.append("piped_http_request_duration_seconds_count{").append(labels).append("} ")
+                    .append(cumulative).append('\n');
+        }
+
+        var limiters = ConcurrencyLimiter.getLimiters().values();
+
+        header(sb, "piped_admission_limit", "gauge", "Adaptive concurrency limit, by route");
+        for (ConcurrencyLimiter limiter : limiters)
+            sample(sb, "piped_admission_limit{route=\"" + limiter.getName() + "\"}", limiter.getLimit());
+
+        header(sb, "piped_admission_queued", "gauge", "Requests waiting for the concurrency limit, by route");
+        for (ConcurrencyLimiter limiter : limiters)
+            sample(sb, "piped_admission_queued{route=\"" + limiter.getName() + "\"}", limiter.getQueued());
+
+        header(sb, "piped_admission_rejected_total", "counter", "Requests rejected with a 503 by the concurrency limit, by route");
+        for (ConcurrencyLimiter limiter : limiters)
+            sample(sb, "piped_admission_rejected_total{route=\"" + limiter.getName() + "\"}", limiter.getRejected());
+
+        var bulkheads = List.of(Multithreading.getUpstreamBulkhead(), Multithreading.getDbBulkhead(), Multithreading.getCpuBulkhead());
+
+        header(sb, "piped_bulkhead_active", "gauge", "Calls running in the bulkhead");
+        for (Bulkhead bulkhead : bulkheads)
+            sample(sb, "piped_bulkhead_active{bulkhead=\"" + bulkhead.getName() + "\"}", bulkhead.getActive());
+
+        header(sb, "piped_bulkhead_limit", "gauge", "Calls that may run in the bulkhead at once");
+        for (Bulkhead bulkhead : bulkheads)
+            sample(sb, "piped_bulkhead_limit{bulkhead=\"" + bulkhead.getName() + "\"}", bulkhead.getMaxConcurrent());
+
+        header(sb, "piped_bulkhead_queued", "gauge", "Calls waiting for the bulkhead");
+        for (Bulkhead bulkhead : bulkheads)
+            sample(sb, "piped_bulkhead_queued{bulkhead=\"" + bulkhead.getName() + "\"}", bulkhead.getQueued());
+
+        header(sb, "piped_bulkhead_completed_total", "counter", "Calls completed by the bulkhead");
+        for (Bulkhead bulkhead : bulkheads)
+            sample(sb, "piped_bulkhead_completed_total{bulkhead=\"" + bulkhead.getName() + "\"}", bulkhead.getCompleted());
+
+        header(sb, "piped_bulkhead_rejected_total", "counter", "Calls rejected with a 503 by the bulkhead");
+        for (Bulkhead bulkhead : bulkheads)
+            sample(sb, "piped_bulkhead_rejected_total{bulkhead=\"" + bulkhead.getName() + "\"}", bulkhead.getRejected());
+
+        gauge(sb, "piped_password_hasher_threads", "Threads hashing passwords", PasswordHasher.getThreads());
+        gauge(sb, "piped_password_hasher_active", "Password hashes running", PasswordHasher.getActive());
+        gauge(sb, "piped_password_hasher_queued", "Password hashes waiting for a thread", PasswordHasher.getQueued());
+        counter(sb, "piped_password_hasher_rejected_total", "Password hashes rejected because the client or the queue was at its limit", PasswordHasher.getRejected());
+        header(sb, "piped_password_hash_seconds", "summary", "Time spent hashing passwords");
+        sample(sb, "piped_password_hash_seconds_sum", PasswordHasher.getHashTime() / 1e9);
+        sample(sb, "piped_password_hash_seconds_count", PasswordHasher.getHashes());
+        header(sb, "piped_password_hash_wait_seconds", "summary", "Time password hashes spent queued");
+        sample(sb, "piped_password_hash_wait_seconds_sum", PasswordHasher.getWaitTime() / 1e9);
+        sample(sb, "piped_password_hash_wait_seconds_count", PasswordHasher.getHashes());
+
+        executor(sb, "limited", Multithreading.getLimitedExecutor());
+        executor(sb, "pubsub", Multithreading.getLimitedPubSubExecutor());
+
+        ForkJoinPool forkJoinPool = Multithreading.getForkJoinPool();
+        gauge(sb, "piped_forkjoin_active_threads", "Threads of the shared fork-join pool running tasks", forkJoinPool.getActiveThreadCount());
+        gauge(sb, "piped_forkjoin_queued_tasks", "Tasks waiting in the shared fork-join pool", forkJoinPool.getQueuedSubmissionCount() + forkJoinPool.getQueuedTaskCount());
+
+        HikariPoolMXBean pool = DatabaseSessionFactory.getPoolMXBean();
+        if (pool != null) {
+            gauge(sb, "piped_db_connections_active", "Database connections in use", pool.getActiveConnections());
+            gauge(sb, "piped_db_connections_idle", "Idle database connections", pool.getIdleConnections());
+            gauge(sb, "piped_db_connections_total", "Open database connections", pool.getTotalConnections());
+            gauge(sb, "piped_db_connections_pending", "Threads waiting for a database connection", pool.getThreadsAwaitingConnection());
+        }
+
+        var pubSubQueue = PubSubHandlers.getQueue();
+        gauge(sb, "piped_pubsub_queue_size", "PubSub entries waiting to be processed", pubSubQueue.size());
+        gauge(sb, "piped_pubsub_active_workers", "PubSub entries being processed", PubSubHandlers.getActiveWorkers());
+        counter(sb, "piped_pubsub_duplicates_total", "PubSub entries coalesced with one already queued", pubSubQueue.getDuplicates());
+        counter(sb, "piped_pubsub_dropped_total", "PubSub entries dropped because the queue was full", pubSubQueue.getDropped());
+
+        gauge(sb, "piped_ingest_queue_size", "Videos waiting to be written", VideoIngestWriter.getQueueSize());
+        counter(sb, "piped_ingest_submitted_total", "Videos submitted for writing", VideoIngestWriter.getSubmitted());
+        counter(sb, "piped_ingest_written_total", "Videos written by the batch writer", VideoIngestWriter.getWritten());
+        counter(sb, "piped_ingest_batches_total", "Batches written", VideoIngestWriter.getBatches());
+        counter(sb, "piped_ingest_failed_batches_total", "Batches that fell back to per-row writes", VideoIngestWriter.getFailedBatches());
+        counter(sb, "piped_ingest_direct_total", "Videos written directly because the queue was full", VideoIngestWriter.getDirect());
+        gauge(sb, "piped_ingest_update_queue_size", "Video updates waiting to be written", VideoIngestWriter.getUpdateQueueSize());
+        counter(sb, "piped_ingest_updated_total", "Video updates written by the batch writer", VideoIngestWriter.getUpdated());
+
+        return sb.toString().getBytes(UTF_8);
+    }
+
+    private static void executor(StringBuilder sb, String name, ThreadPoolExecutor executor) {
+        gauge(sb, "piped_executor_" + name + "_active_threads", "Threads of the " + name + " executor running tasks", executor.getActiveCount());
+        gauge(sb, "piped_executor_" + name + "_queued_tasks", "Tasks waiting in the " + name + " executor", executor.getQueue().size());
+        counter(sb, "piped_executor_" + name + "_completed_tasks_total", "Tasks completed by the " + name + " executor", executor.getCompletedTaskCount());
+    }
+
+    private static String labels(RouteMetrics route) {
+        return "method=\"" + route.getMethod() + "\",route=\"" + route.getPath() + "\"";
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, long value) {
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, double value) {
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, long value) {
+        header(sb, name, "gauge", help);
+        sample(sb, name, value);
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, long value) {
+        header(sb, name, "counter", help);
+        sample(sb, name, value);
+    }
+}
@@ -14,14 +14,16 @@ import org.schabi.newpipe.extractor.localization.DateWrapper;
 import org.xml.sax.InputSource;
 
 import java.io.ByteArrayInputStream;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 import static me.kavin.piped.consts.Constants.YOUTUBE_SERVICE;
 
 public class PubSubHandlers {
 
-    private static final LinkedBlockingQueue<String> pubSubQueue = new LinkedBlockingQueue<>();
+    private static final DedupQueue<String, PubSubEntry> pubSubQueue = new DedupQueue<>(Constants.PUBSUB_QUEUE_SIZE, PubSubEntry::videoId);
+
+    private static final Semaphore workerPermits = new Semaphore(Constants.PUBSUB_CONCURRENCY);
 
     public static void handlePubSub(byte[] body) throws Exception {
         SyndFeed feed = new SyndFeedInput().build(new InputSource(new ByteArrayInputStream(body)));
@@ -33,68 +35,95 @@ public class PubSubHandlers {
 
             long publishedDate = entry.getPublishedDate().getTime();
 
-            String str = videoId + ":" + publishedDate;
+            // duplicates and overflow are dropped, the hub notifies us again on the next update
+            pubSubQueue.offer(new PubSubEntry(videoId, publishedDate));
+        }
+    }
 
-            if (pubSubQueue.contains(str))
-                continue;
+    public static DedupQueue<String, PubSubEntry> getQueue() {
+        return pubSubQueue;
+    }
 
-            pubSubQueue.put(str);
-        }
+    public static int getActiveWorkers() {
+        return Constants.PUBSUB_CONCURRENCY - workerPermits.availablePermits();
     }
 
     static {
-        for (int i = 0; i < Runtime.getRuntime().availableProcessors(); i++) {
-            new Thread(() -> {
+        // processing is mostly waiting on YouTube, so run every entry on its own virtual thread,
+        // bounded by the semaphore rather than by the number of cores
+        Thread.ofVirtual().name("PubSub-Dispatcher").start(() -> {
+            while (true) {
                 try {
-                    while (true) {
-                        String str = pubSubQueue.take();
-
-                        String videoId = StringUtils.substringBefore(str, ":");
-                        long publishedDate = Long.parseLong(StringUtils.substringAfter(str, ":"));
-
-                        try (StatelessSession s = DatabaseSessionFactory.createStatelessSession()) {
-                            if (DatabaseHelper.doesVideoExist(s, videoId))
-                                continue;
-                        }
+                    workerPermits.acquire();
+
+                    PubSubEntry entry;
+                    try {
+                        entry = pubSubQueue.take();
+                    } catch (InterruptedException e) {
+                        workerPermits.release();
+                        throw e;
+                    }
 
+                    Multithreading.runAsync(() -> {
                         try {
-                            Sentry.setExtra("videoId", videoId);
-                            var extractor = YOUTUBE_SERVICE.getStreamExtractor("https://youtube.com/watch?v=" + videoId);
-                            extractor.fetchPage();
-
-                            Multithreading.runAsync(() -> {
-
-                                DateWrapper uploadDate;
-
-                                try {
-                                    uploadDate = extractor.getUploadDate();
-                                } catch (ParsingException e) {
-                                    throw new RuntimeException(e);
-                                }
-
-                                if (uploadDate != null && System.currentTimeMillis() - uploadDate.offsetDateTime().toInstant().toEpochMilli() < TimeUnit.DAYS.toMillis(Constants.FEED_RETENTION)) {
-                                    try {
-                                        MatrixHelper.sendEvent("video.piped.stream.info", new FederatedVideoInfo(
-                                                StringUtils.substring(extractor.getUrl(), -11), StringUtils.substring(extractor.getUploaderUrl(), -24),
-                                                extractor.getName(),
-                                                extractor.getLength(), extractor.getViewCount())
-                                        );
-                                    } catch (Exception e) {
-                                        ExceptionHandler.handle(e);
-                                    }
-                                }
-                            });
-
-                            VideoHelpers.handleNewVideo(extractor, publishedDate, null);
-                        } catch (Exception e) {
-                            ExceptionHandler.handle(e);
+                            processEntry(entry);
+                        } finally {
+                            pubSubQueue.done(entry);
+                            workerPermits.release();
                         }
-                    }
+                    });
+                } catch (InterruptedException e) {
+                    return;
                 } catch (Exception e) {
                     ExceptionHandler.handle(e);
                 }
-            }, "PubSub-Worker-" + i).start();
+            }
+        });
+    }
+
+    private static void processEntry(PubSubEntry entry) {
+
+        String videoId = entry.videoId();
+
+        try (StatelessSession s = DatabaseSessionFactory.createStatelessSession()) {
+            if (DatabaseHelper.doesVideoExist(s, videoId))
+                return;
+        }
+
+        try {
+            Sentry.setExtra("videoId", videoId);
+            var extractor = YOUTUBE_SERVICE.getStreamExtractor("https://youtube.com/watch?v=" + videoId);
+            extractor.fetchPage();
+
+            Multithreading.runAsync(() -> {
+
+                DateWrapper uploadDate;
+
+                try {
+                    uploadDate = extractor.getUploadDate();
+                } catch (ParsingException e) {
+                    throw new RuntimeException(e);
+                }
+
+                if (uploadDate != null && System.currentTimeMillis() - uploadDate.offsetDateTime().toInstant().toEpochMilli() < TimeUnit.DAYS.toMillis(Constants.FEED_RETENTION)) {
+                    try {
+                        MatrixHelper.sendEvent("video.piped.stream.info", new FederatedVideoInfo(
+                                StringUtils.substring(extractor.getUrl(), -11), StringUtils.substring(extractor.getUploaderUrl(), -24),
+                                extractor.getName(),
+                                extractor.getLength(), extractor.getViewCount())
+                        );
+                    } catch (Exception e) {
+                        ExceptionHandler.handle(e);
+                    }
+                }
+            });
+
+            VideoHelpers.handleNewVideo(extractor, entry.publishedDate(), null);
+        } catch (Exception e) {
+            ExceptionHandler.handle(e);
         }
     }
 
+    public record PubSubEntry(String videoId, long publishedDate) {
+    }
 }
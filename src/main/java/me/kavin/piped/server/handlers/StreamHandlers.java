@@ -1,6 +1,9 @@
 package me.kavin.piped.server.handlers;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import com.grack.nanojson.JsonObject;
 import com.grack.nanojson.JsonWriter;
 import io.sentry.ITransaction;
@@ -29,9 +32,10 @@ import org.schabi.newpipe.extractor.utils.JsonUtils;
 import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static me.kavin.piped.consts.Constants.YOUTUBE_SERVICE;
@@ -43,7 +47,67 @@ import static org.schabi.newpipe.extractor.services.youtube.YoutubeParsingHelper
 import static org.schabi.newpipe.extractor.services.youtube.YoutubeParsingHelper.prepareDesktopJsonBuilder;
 
 public class StreamHandlers {
-    public static byte[] streamsResponse(String videoId) throws Exception {
+
+    private static final Pattern EXPIRE_PATTERN = Pattern.compile("[?&]expire=(\\d+)");
+
+    /**
+     * Serialized streams, keyed by video ID. Loads for the same video ID are coalesced into a single extraction,
+     * and entries expire before the signed googlevideo URLs in them do. Responses that are missing a late LBRY or RYD
+     * enrichment are not kept, so that the next request can pick it up.
+     */
+    private static final AsyncLoadingCache<String, CachedStreams> streamsCache = Caffeine.newBuilder()
+            .maximumSize(Constants.STREAMS_CACHE_SIZE)
+            .expireAfter(new Expiry<String, CachedStreams>() {
+                @Override
+                public long expireAfterCreate(String key, CachedStreams value, long currentTime) {
+                    return TimeUnit.MILLISECONDS.toNanos(Math.max(0, value.expiresAt() - System.currentTimeMillis()));
+                }
+
+                @Override
+                public long expireAfterUpdate(String key, CachedStreams value, long currentTime, long currentDuration) {
+                    return expireAfterCreate(key, value, currentTime);
+                }
+
+                @Override
+                public long expireAfterRead(String key, CachedStreams value, long currentTime, long currentDuration) {
+                    return currentDuration;
+                }
+            })
+            .executor(Multithreading.getCachedExecutor())
+            .buildAsync(videoId -> {
+                ServerTiming timing = new ServerTiming();
+                FetchedStreams fetched = fetchStreams(videoId, timing);
+                CompressedBody body;
+                try (var ignored = timing.start("serialize")) {
+                    body = CompressedBody.of(mapper.writeValueAsBytes(fetched.streams()));
+                }
+                long expiresAt = fetched.complete() ? getExpiry(fetched.streams()) : System.currentTimeMillis();
+                return new CachedStreams(body, expiresAt, timing);
+            });
+
+    public static CompressedBody streamsResponse(String videoId) throws Exception {
+
+        Sentry.setExtra("videoId", videoId);
+
+        try {
+            var future = streamsCache.get(videoId);
+            boolean hit = future.isDone();
+            if (hit)
+                ConcurrencyLimiter.markCacheHit();
+            CachedStreams cached = future.get();
+
+            // phases of the extraction are only reported to the requests that waited for it
+            if (!hit)
+                ServerTiming.current().addAll(cached.timing());
+
+            return cached.body();
+        } catch (ExecutionException e) {
+            ExceptionUtils.rethrow(e.getCause());
+            return null;
+        }
+    }
+
+    private static FetchedStreams fetchStreams(String videoId, ServerTiming timing) throws Exception {
 
         Sentry.setExtra("videoId", videoId);
 
@@ -64,55 +128,43 @@ public class StreamHandlers {
             return null;
         });
 
-        final var futureLbryId = Multithreading.supplyAsync(() -> {
-            Sentry.setExtra("videoId", videoId);
-            try {
-                return LbryHelper.getLBRYId(videoId);
-            } catch (Exception e) {
-                ExceptionHandler.handle(e);
-            }
+        final long start = System.nanoTime();
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(Constants.STREAMS_ENRICHMENT_TIMEOUT);
+
+        final var futureLbryId = LbryHelper.getLBRYIdAsync(videoId).exceptionally(e -> {
+            ExceptionHandler.handle((Exception) e);
             return null;
         });
 
-        final var futureLBRY = Multithreading.supplyAsync(() -> {
+        final var futureLBRY = futureLbryId.thenApplyAsync(lbryId -> {
             Sentry.setExtra("videoId", videoId);
+            Sentry.setExtra("lbryId", lbryId);
             ITransaction transaction = Sentry.startTransaction("LBRY Stream fetch", "fetch");
             try {
-                var childTask = transaction.startChild("fetch", "LBRY ID fetch");
-                String lbryId = futureLbryId.get(2, TimeUnit.SECONDS);
-                Sentry.setExtra("lbryId", lbryId);
-                childTask.finish();
-
                 return LbryHelper.getLBRYStreamURL(lbryId);
-            } catch (TimeoutException ignored) {
             } catch (Exception e) {
                 ExceptionHandler.handle(e);
             } finally {
                 transaction.finish();
             }
             return null;
-        });
+        }, Multithreading.getCachedExecutor());
 
-        final var futureLBRYHls = Multithreading.supplyAsync(() -> {
+        final var futureLBRYHls = futureLBRY.thenApplyAsync(lbryUrl -> {
             Sentry.setExtra("videoId", videoId);
+            Sentry.setExtra("lbryUrl", lbryUrl);
             ITransaction transaction = Sentry.startTransaction("LBRY HLS fetch", "fetch");
             try {
-                var childTask = transaction.startChild("fetch", "LBRY Stream URL fetch");
-                String lbryUrl = futureLBRY.get(2, TimeUnit.SECONDS);
-                Sentry.setExtra("lbryUrl", lbryUrl);
-                childTask.finish();
-
                 return LbryHelper.getLBRYHlsUrl(lbryUrl);
-            } catch (TimeoutException ignored) {
             } catch (Exception e) {
                 ExceptionHandler.handle(e);
             } finally {
                 transaction.finish();
             }
             return null;
-        });
+        }, Multithreading.getCachedExecutor());
 
-        final var futureDislikeRating = Multithreading.supplyAsync(() -> {
+        final var futureDislikeRating = CompletableFuture.supplyAsync(() -> {
             Sentry.setExtra("videoId", videoId);
             ITransaction transaction = Sentry.startTransaction("Dislike Rating", "fetch");
             try {
@@ -122,13 +174,18 @@ public class StreamHandlers {
             } finally {
                 transaction.finish();
             }
-            return null;
-        });
+            return -1d;
+        }, Multithreading.getCachedExecutor());
+
+        // enrichments that miss the deadline are absent from the timing, just like from the response,
+        // the timing itself is only touched from here, as it's cached along with the response
+        final var lbryTime = futureLBRYHls.handle((result, e) -> System.nanoTime() - start);
+        final var rydTime = futureDislikeRating.handle((result, e) -> System.nanoTime() - start);
 
         StreamInfo info = null;
         Throwable exception = null;
 
-        try {
+        try (var ignored = timing.start("extract")) {
             info = futureStream.get(10, TimeUnit.SECONDS);
         } catch (ExecutionException e) {
             exception = e.getCause();
@@ -192,44 +249,24 @@ public class StreamHandlers {
                 streams.thumbnailUrl = rewriteURL(streams.thumbnailUrl);
                 streams.uploaderAvatar = rewriteURL(streams.uploaderAvatar);
 
-                String lbryId;
+                boolean complete = awaitEnrichments(deadline, futureLbryId, futureLBRY, futureDislikeRating);
+                recordEnrichment(timing, "lbry", lbryTime);
+                recordEnrichment(timing, "ryd", rydTime);
 
-                try {
-                    lbryId = futureLbryId.get(2, TimeUnit.SECONDS);
-                } catch (Exception e) {
-                    lbryId = null;
-                }
+                String lbryId = futureLbryId.getNow(null);
 
                 if (lbryId != null) {
                     streams.lbryId = lbryId;
                 }
 
-                String lbryURL;
-
-                try {
-                    lbryURL = futureLBRY.get(3, TimeUnit.SECONDS);
-                } catch (Exception e) {
-                    lbryURL = null;
-                }
+                String lbryURL = futureLBRY.getNow(null);
 
                 if (lbryURL != null)
                     streams.videoStreams.add(0, new PipedStream(-1, lbryURL, "MP4", "LBRY", "video/mp4", false, -1));
 
-                // Attempt to get dislikes calculating with the RYD API rating
-                if (streams.dislikes < 0 && streams.likes >= 0) {
-                    double rating;
-                    try {
-                        rating = futureDislikeRating.get(3, TimeUnit.SECONDS);
-                    } catch (Exception e) {
-                        rating = -1;
-                    }
-
-                    if (rating > 1 && rating <= 5) {
-                        streams.dislikes = Math.round(streams.likes * ((5 - rating) / (rating - 1)));
-                    }
-                }
+                applyDislikeRating(streams, futureDislikeRating.getNow(-1d));
 
-                return mapper.writeValueAsBytes(streams);
+                return new FetchedStreams(streams, complete);
             } else if (Constants.GEO_RESTRICTION_CHECKER_URL == null) {
                 throw new GeographicRestrictionException("This instance does not have a geo restriction checker set in its configuration");
             }
@@ -240,23 +277,24 @@ public class StreamHandlers {
                 throw (Exception) exception;
         }
 
+        var collect = timing.start("collect");
+
         Streams streams = CollectionUtils.collectStreamInfo(info);
 
-        String lbryURL = null;
+        collect.close();
 
-        try {
-            lbryURL = futureLBRY.get(3, TimeUnit.SECONDS);
-        } catch (Exception e) {
-            // ignored
-        }
+        // Late enrichments are dropped from the response, rather than delaying it
+        boolean complete;
+        if (streams.dislikes < 0 && streams.likes >= 0)
+            complete = awaitEnrichments(deadline, futureLbryId, futureLBRYHls, futureDislikeRating);
+        else
+            complete = awaitEnrichments(deadline, futureLbryId, futureLBRYHls);
+        recordEnrichment(timing, "lbry", lbryTime);
+        recordEnrichment(timing, "ryd", rydTime);
 
-        String lbryHlsURL = null;
+        String lbryURL = futureLBRY.getNow(null);
 
-        try {
-            lbryHlsURL = futureLBRYHls.get(4, TimeUnit.SECONDS);
-        } catch (Exception e) {
-            // ignored
-        }
+        String lbryHlsURL = futureLBRYHls.getNow(null);
 
         if (lbryHlsURL != null)
             streams.videoStreams.add(0, new PipedStream(-1, lbryHlsURL, "HLS", "LBRY HLS", "application/x-mpegurl", false, -1));
@@ -267,6 +305,7 @@ public class StreamHandlers {
         long time = info.getUploadDate() != null ? info.getUploadDate().offsetDateTime().toInstant().toEpochMilli()
                 : System.currentTimeMillis();
 
+        // once per extraction, cache hits carry no new information to store or announce
         if (info.getUploadDate() != null && System.currentTimeMillis() - time < TimeUnit.DAYS.toMillis(Constants.FEED_RETENTION)) {
             VideoHelpers.updateVideo(info.getId(), info, time);
             StreamInfo finalInfo = info;
@@ -283,32 +322,77 @@ public class StreamHandlers {
             });
         }
 
-        String lbryId;
+        streams.lbryId = futureLbryId.getNow(null);
+
+        applyDislikeRating(streams, futureDislikeRating.getNow(-1d));
+
+        return new FetchedStreams(streams, complete);
+
+    }
 
+    /**
+     * Waits for the given enrichments until the deadline passes, without failing if some of them are still pending.
+     *
+     * @return whether all of them completed in time
+     */
+    private static boolean awaitEnrichments(long deadline, CompletableFuture<?>... futures) {
         try {
-            lbryId = futureLbryId.get(2, TimeUnit.SECONDS);
+            CompletableFuture.allOf(futures).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
         } catch (Exception e) {
-            lbryId = null;
+            // ignored, the results that are available will still be used
         }
+        for (CompletableFuture<?> future : futures)
+            if (!future.isDone())
+                return false;
+        return true;
+    }
+
+    private static void recordEnrichment(ServerTiming timing, String name, CompletableFuture<Long> duration) {
+        Long nanos = duration.getNow(null);
+        if (nanos != null)
+            timing.record(name, nanos);
+    }
 
-        streams.lbryId = lbryId;
 
+    private static void applyDislikeRating(Streams streams, double rating) {
         // Attempt to get dislikes calculating with the RYD API rating
-        if (streams.dislikes < 0 && streams.likes >= 0) {
-            double rating;
-            try {
-                rating = futureDislikeRating.get(3, TimeUnit.SECONDS);
-            } catch (Exception e) {
-                rating = -1;
-            }
+        if (streams.dislikes < 0 && streams.likes >= 0 && rating > 1 && rating <= 5) {
+            streams.dislikes = Math.round(streams.likes * ((5 - rating) / (rating - 1)));
+        }
+    }
 
-            if (rating > 1 && rating <= 5) {
-                streams.dislikes = Math.round(streams.likes * ((5 - rating) / (rating - 1)));
+    /**
+     * Returns the time at which a cached copy of the streams should be dropped, which is the earliest expiry of the
+     * signed stream URLs minus a safety margin, capped by the configured cache TTL.
+     */
+    private static long getExpiry(Streams streams) {
+        long expiry = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(Constants.STREAMS_CACHE_TTL);
+
+        List<String> urls = new ObjectArrayList<>();
+        urls.add(streams.hls);
+        urls.add(streams.dash);
+        if (streams.audioStreams != null)
+            streams.audioStreams.forEach(stream -> urls.add(stream.url));
+        if (streams.videoStreams != null)
+            streams.videoStreams.forEach(stream -> urls.add(stream.url));
+
+        for (String url : urls) {
+            if (url == null)
+                continue;
+            var matcher = EXPIRE_PATTERN.matcher(url);
+            if (matcher.find()) {
+                long urlExpiry = TimeUnit.SECONDS.toMillis(Long.parseLong(matcher.group(1))) - TimeUnit.MINUTES.toMillis(5);
+                expiry = Math.min(expiry, urlExpiry);
             }
         }
 
-        return mapper.writeValueAsBytes(streams);
+        return expiry;
+    }
+
+    private record FetchedStreams(Streams streams, boolean complete) {
+    }
 
+    private record CachedStreams(CompressedBody body, long expiresAt, ServerTiming timing) {
     }
 
     public static byte[] resolveClipId(String clipId) throws Exception {
@@ -1,8 +1,15 @@
 package me.kavin.piped.server.handlers;
 
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import me.kavin.piped.consts.Constants;
+import me.kavin.piped.utils.CompressedBody;
+import me.kavin.piped.utils.ConcurrencyLimiter;
 import me.kavin.piped.utils.ExceptionHandler;
+import me.kavin.piped.utils.Multithreading;
 import me.kavin.piped.utils.obj.ContentItem;
 import me.kavin.piped.utils.resp.InvalidRequestResponse;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.schabi.newpipe.extractor.exceptions.ExtractionException;
 import org.schabi.newpipe.extractor.kiosk.KioskExtractor;
 import org.schabi.newpipe.extractor.kiosk.KioskInfo;
@@ -11,18 +18,82 @@ import org.schabi.newpipe.extractor.localization.ContentCountry;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static me.kavin.piped.consts.Constants.YOUTUBE_SERVICE;
 import static me.kavin.piped.consts.Constants.mapper;
 import static me.kavin.piped.utils.CollectionUtils.collectRelatedItems;
 
 public class TrendingHandlers {
-    public static byte[] trendingResponse(String region)
-            throws ExtractionException, IOException {
+
+    private static final Set<String> SUPPORTED_REGIONS = YOUTUBE_SERVICE.getSupportedCountries()
+            .stream()
+            .map(ContentCountry::getCountryCode)
+            .collect(Collectors.toUnmodifiableSet());
+
+    // how long entries are kept when they aren't refreshed in the background
+    private static final long UNREFRESHED_TTL = 30;
+
+    /**
+     * Serialized and compressed trending responses, keyed by region. Only supported regions are cached, which keeps the cache bounded.
+     * Entries are kept fresh by the refresh timer below, and only expire if refreshing keeps failing. With a
+     * {@code TRENDING_REFRESH_INTERVAL} of 0 or less, there is no timer, and entries are loaded again once they expire.
+     */
+    private static final AsyncLoadingCache<String, CompressedBody> trendingCache = Caffeine.newBuilder()
+            .expireAfterWrite(Constants.TRENDING_REFRESH_INTERVAL > 0 ? Constants.TRENDING_REFRESH_INTERVAL * 3L : UNREFRESHED_TTL,
+                    TimeUnit.MINUTES)
+            .executor(Multithreading.getCachedExecutor())
+            .buildAsync(region -> CompressedBody.of(fetchTrending(region)));
+
+    static {
+        long interval = TimeUnit.MINUTES.toMillis(Constants.TRENDING_REFRESH_INTERVAL);
+
+        // 0 or less turns the background refresh off
+        if (interval > 0) {
+            new Timer().scheduleAtFixedRate(new TimerTask() {
+                @Override
+                public void run() {
+                    var cache = trendingCache.synchronous();
+                    for (String region : cache.asMap().keySet()) {
+                        // spread the refreshes out, so that all regions don't hit YouTube at the same time
+                        long jitter = ThreadLocalRandom.current().nextLong(interval / 4);
+                        CompletableFuture.delayedExecutor(jitter, TimeUnit.MILLISECONDS, Multithreading.getCachedExecutor())
+                                .execute(() -> cache.refresh(region));
+                    }
+                }
+            }, interval, interval);
+        }
+    }
+
+    public static CompressedBody trendingResponse(String region) throws Exception {
 
         if (region == null)
             ExceptionHandler.throwErrorResponse(new InvalidRequestResponse("region is a required parameter"));
 
+        if (!SUPPORTED_REGIONS.contains(region))
+            return new CompressedBody(fetchTrending(region), null);
+
+        try {
+            var future = trendingCache.get(region);
+            if (future.isDone())
+                ConcurrencyLimiter.markCacheHit();
+            return future.get();
+        } catch (ExecutionException e) {
+            ExceptionUtils.rethrow(e.getCause());
+            return null;
+        }
+    }
+
+    private static byte[] fetchTrending(String region)
+            throws ExtractionException, IOException {
+
         KioskList kioskList = YOUTUBE_SERVICE.getKioskList();
         kioskList.forceContentCountry(new ContentCountry(region));
         KioskExtractor<?> extractor = kioskList.getDefaultKioskExtractor();
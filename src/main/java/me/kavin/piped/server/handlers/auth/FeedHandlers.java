@@ -1,5 +1,6 @@
 package me.kavin.piped.server.handlers.auth;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.rometools.rome.feed.synd.SyndEntry;
 import com.rometools.rome.feed.synd.SyndFeed;
 import com.rometools.rome.io.FeedException;
@@ -7,7 +8,10 @@ import com.rometools.rome.io.SyndFeedOutput;
 import jakarta.persistence.criteria.CriteriaBuilder;
 import me.kavin.piped.consts.Constants;
 import me.kavin.piped.utils.*;
-import me.kavin.piped.utils.obj.StreamItem;
+import me.kavin.piped.utils.obj.ContentItem;
+import me.kavin.piped.utils.obj.FeedCursor;
+import me.kavin.piped.utils.obj.FeedVersion;
+import me.kavin.piped.utils.obj.StreamsPage;
 import me.kavin.piped.utils.obj.SubscriptionChannel;
 import me.kavin.piped.utils.obj.db.Channel;
 import me.kavin.piped.utils.obj.db.UnauthenticatedSubscription;
@@ -18,21 +22,26 @@ import me.kavin.piped.utils.resp.AuthenticationFailureResponse;
 import me.kavin.piped.utils.resp.InvalidRequestResponse;
 import me.kavin.piped.utils.resp.SubscribeStatusResponse;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.hibernate.Session;
 import org.hibernate.StatelessSession;
 import org.schabi.newpipe.extractor.channel.ChannelInfo;
 
 import javax.annotation.Nullable;
-import java.io.IOException;
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static me.kavin.piped.consts.Constants.mapper;
-import static me.kavin.piped.utils.URLUtils.rewriteURL;
 
 public class FeedHandlers {
+
     public static byte[] subscribeResponse(String session, String channelId)
             throws IOException {
 
@@ -93,27 +102,90 @@ public class FeedHandlers {
         }
     }
 
-    public static byte[] feedResponse(String session) throws IOException {
+    public static void feedResponse(String session, StreamedBody body) {
 
         if (StringUtils.isBlank(session))
             ExceptionHandler.throwErrorResponse(new InvalidRequestResponse("session is a required parameter"));
 
-        User user = DatabaseHelper.getUserFromSession(session);
+        User user;
+        try (var ignored = ServerTiming.phase("auth")) {
+            user = DatabaseHelper.getUserFromSession(session);
+        }
+
+        if (user == null)
+            ExceptionHandler.throwErrorResponse(new AuthenticationFailureResponse());
+
+        streamFeed(body, s -> FeedHelpers.generateAuthenticatedFeed(s, user.getId(), Integer.MAX_VALUE));
+    }
+
+    /**
+     * A weak ETag for {@link #feedResponse(String, StreamedBody)}, computed with a cheap probe instead of loading the feed.
+     * Changes to video metadata, like view counts, don't change it.
+     */
+    public static String feedETag(String session) {
+
+        if (StringUtils.isBlank(session))
+            ExceptionHandler.throwErrorResponse(new InvalidRequestResponse("session is a required parameter"));
+
+        User user;
+        try (var ignored = ServerTiming.phase("auth")) {
+            user = DatabaseHelper.getUserFromSession(session);
+        }
+
+        if (user == null)
+            ExceptionHandler.throwErrorResponse(new AuthenticationFailureResponse());
+
+        try (StatelessSession s = DatabaseSessionFactory.createStatelessSession();
+             var ignored = ServerTiming.phase("probe")) {
+            FeedVersion version = FeedHelpers.getAuthenticatedFeedVersion(s, user.getId());
+            long subscriptions = FeedHelpers.getSubscriptionsDigest(s, user.getId());
+            return ETags.weak(user.getId(), version.latest(), version.count(), subscriptions);
+        }
+    }
+
+    public static byte[] feedPageResponse(String session, @Nullable String nextpage) throws IOException {
+
+        if (StringUtils.isBlank(session))
+            ExceptionHandler.throwErrorResponse(new InvalidRequestResponse("session is a required parameter"));
+
+        FeedCursor cursor = null;
+
+        if (StringUtils.isNotBlank(nextpage))
+            try {
+                cursor = FeedCursor.parse(nextpage);
+            } catch (IllegalArgumentException e) {
+                ExceptionHandler.throwErrorResponse(new InvalidRequestResponse("nextpage is not a valid feed cursor"));
+            }
+
+        User user;
+        try (var ignored = ServerTiming.phase("auth")) {
+            user = DatabaseHelper.getUserFromSession(session);
+        }
 
         if (user != null) {
             try (StatelessSession s = DatabaseSessionFactory.createStatelessSession()) {
 
-                List<StreamItem> feedItems = FeedHelpers.generateAuthenticatedFeed(s, user.getId(), Integer.MAX_VALUE)
-                        .parallel().map(video -> {
-                            var channel = video.getChannel();
+                List<Video> videos;
+                try (var ignored = ServerTiming.phase("db")) {
+                    videos = FeedHelpers.generateAuthenticatedFeedPage(s, user.getId(), cursor, Constants.FEED_PAGE_SIZE);
+                }
 
-                            return new StreamItem("/watch?v=" + video.getId(), video.getTitle(),
-                                    rewriteURL(video.getThumbnail()), channel.getUploader(), "/channel/" + channel.getUploaderId(),
-                                    rewriteURL(channel.getUploaderAvatar()), null, null, video.getDuration(), video.getViews(),
-                                    video.getUploaded(), channel.isVerified(), video.isShort());
-                        }).toList();
+                List<ContentItem> feedItems;
+                try (var ignored = ServerTiming.phase("map")) {
+                    feedItems = videos.stream().<ContentItem>map(FeedHelpers::toStreamItem).toList();
+                }
 
-                return mapper.writeValueAsBytes(feedItems);
+                String next = null;
+
+                // a full page means there may be more videos after it
+                if (videos.size() == Constants.FEED_PAGE_SIZE) {
+                    Video last = videos.getLast();
+                    next = new FeedCursor(last.getUploaded(), last.getId()).toString();
+                }
+
+                try (var ignored = ServerTiming.phase("serialize")) {
+                    return mapper.writeValueAsBytes(new StreamsPage(next, feedItems));
+                }
             }
         }
 
@@ -126,22 +198,36 @@ public class FeedHandlers {
         if (StringUtils.isBlank(session))
             ExceptionHandler.throwErrorResponse(new InvalidRequestResponse("session is a required parameter"));
 
-        User user = DatabaseHelper.getUserFromSession(session);
+        User user;
+        try (var ignored = ServerTiming.phase("auth")) {
+            user = DatabaseHelper.getUserFromSession(session);
+        }
 
         if (user != null) {
             try (StatelessSession s = DatabaseSessionFactory.createStatelessSession()) {
                 SyndFeed feed = FeedHelpers.createRssFeed(user.getUsername());
 
-                final List<SyndEntry> entries = FeedHelpers.generateAuthenticatedFeed(s, user.getId(), 100)
-                        .filter(FeedHelpers.createFeedFilter(filter))
-                        .map(video -> {
-                            var channel = video.getChannel();
-                            return ChannelHelpers.createEntry(video, channel);
-                        }).toList();
+                final List<Video> videos;
+                try (var ignored = ServerTiming.phase("db")) {
+                    videos = FeedHelpers.generateAuthenticatedFeed(s, user.getId(), 100)
+                            .filter(FeedHelpers.createFeedFilter(filter))
+                            .toList();
+                }
+
+                final List<SyndEntry> entries;
+                try (var ignored = ServerTiming.phase("map")) {
+                    entries = videos.stream()
+                            .map(video -> {
+                                var channel = video.getChannel();
+                                return ChannelHelpers.createEntry(video, channel);
+                            }).toList();
+                }
 
                 feed.setEntries(entries);
 
-                return new SyndFeedOutput().outputString(feed).getBytes(UTF_8);
+                try (var ignored = ServerTiming.phase("serialize")) {
+                    return new SyndFeedOutput().outputString(feed).getBytes(UTF_8);
+                }
             }
         }
 
@@ -149,33 +235,60 @@ public class FeedHandlers {
         return null;
     }
 
-    public static byte[] unauthenticatedFeedResponse(String[] channelIds) throws Exception {
+    public static void unauthenticatedFeedResponse(String[] channelIds, StreamedBody body) throws Exception {
 
         Set<String> filteredChannels = Arrays.stream(channelIds)
                 .filter(ChannelHelpers::isValidId)
                 .collect(Collectors.toUnmodifiableSet());
 
-        if (filteredChannels.isEmpty())
-            return mapper.writeValueAsBytes(Collections.EMPTY_LIST);
+        if (filteredChannels.isEmpty()) {
+            try (OutputStream out = body.getOutputStream()) {
+                mapper.writeValue(out, Collections.EMPTY_LIST);
+            }
+            return;
+        }
 
-        try (StatelessSession s = DatabaseSessionFactory.createStatelessSession()) {
-            List<StreamItem> feedItems = FeedHelpers.generateUnauthenticatedFeed(s, filteredChannels, Integer.MAX_VALUE)
-                    .parallel().map(video -> {
-                        var channel = video.getChannel();
+        updateSubscribedTime(filteredChannels);
+        addMissingChannels(filteredChannels);
 
-                        return new StreamItem("/watch?v=" + video.getId(), video.getTitle(),
-                                rewriteURL(video.getThumbnail()), channel.getUploader(), "/channel/" + channel.getUploaderId(),
-                                rewriteURL(channel.getUploaderAvatar()), null, null, video.getDuration(), video.getViews(),
-                                video.getUploaded(), channel.isVerified(), video.isShort());
-                    }).toList();
+        streamFeed(body, s -> FeedHelpers.generateUnauthenticatedFeed(s, filteredChannels, Integer.MAX_VALUE));
+    }
 
-            updateSubscribedTime(filteredChannels);
-            addMissingChannels(filteredChannels);
+    /**
+     * A weak ETag for {@link #unauthenticatedFeedResponse(String[], StreamedBody)}, see {@link #feedETag(String)}.
+     */
+    public static String unauthenticatedFeedETag(String[] channelIds) {
+
+        Set<String> filteredChannels = Arrays.stream(channelIds)
+                .filter(ChannelHelpers::isValidId)
+                .collect(Collectors.toUnmodifiableSet());
+
+        if (filteredChannels.isEmpty())
+            return ETags.weak(0, 0);
 
-            return mapper.writeValueAsBytes(feedItems);
+        try (StatelessSession s = DatabaseSessionFactory.createStatelessSession();
+             var ignored = ServerTiming.phase("probe")) {
+            FeedVersion version = FeedHelpers.getUnauthenticatedFeedVersion(s, filteredChannels);
+            return ETags.weak(version.latest(), version.count());
         }
     }
 
+    /**
+     * Keeps the channels of an unauthenticated feed that was answered with 304 subscribed, like a full response does.
+     */
+    public static void unauthenticatedFeedNotModified(String[] channelIds) {
+
+        Set<String> filteredChannels = Arrays.stream(channelIds)
+                .filter(ChannelHelpers::isValidId)
+                .collect(Collectors.toUnmodifiableSet());
+
+        if (filteredChannels.isEmpty())
+            return;
+
+        updateSubscribedTime(filteredChannels);
+        addMissingChannels(filteredChannels);
+    }
+
     public static byte[] unauthenticatedFeedResponseRSS(String[] channelIds, @Nullable String filter) throws Exception {
 
         Set<String> filteredChannels = Arrays.stream(channelIds)
@@ -186,13 +299,19 @@ public class FeedHandlers {
             ExceptionHandler.throwErrorResponse(new InvalidRequestResponse("No valid channel IDs provided"));
 
         try (StatelessSession s = DatabaseSessionFactory.createStatelessSession()) {
-            List<Video> videos = FeedHelpers.generateUnauthenticatedFeed(s, filteredChannels, 100)
-                    .filter(FeedHelpers.createFeedFilter(filter))
-                    .toList();
+            List<Video> videos;
+            try (var ignored = ServerTiming.phase("db")) {
+                videos = FeedHelpers.generateUnauthenticatedFeed(s, filteredChannels, 100)
+                        .filter(FeedHelpers.createFeedFilter(filter))
+                        .toList();
+            }
 
-            List<SyndEntry> entries = videos.stream()
-                    .map(video -> ChannelHelpers.createEntry(video, video.getChannel()))
-                    .toList();
+            List<SyndEntry> entries;
+            try (var ignored = ServerTiming.phase("map")) {
+                entries = videos.stream()
+                        .map(video -> ChannelHelpers.createEntry(video, video.getChannel()))
+                        .toList();
+            }
 
             SyndFeed feed = FeedHelpers.createRssFeed(null);
 
@@ -217,7 +336,57 @@ public class FeedHandlers {
             updateSubscribedTime(filteredChannels);
             addMissingChannels(filteredChannels);
 
-            return new SyndFeedOutput().outputString(feed).getBytes(UTF_8);
+            try (var ignored = ServerTiming.phase("serialize")) {
+                return new SyndFeedOutput().outputString(feed).getBytes(UTF_8);
+            }
+        }
+    }
+
+    /**
+     * Serializes the feed as a JSON array into the body while it is being read from the database, so that the whole
+     * feed never has to be held in memory. The body is written by a virtual thread, which owns the database session.
+     * <p>
+     * This only returns once the query has produced its first row, so that query failures still surface as an error
+     * response and the time spent in the database is reported with the response headers.
+     */
+    private static void streamFeed(StreamedBody body, Function<StatelessSession, Stream<Video>> feed) {
+        CompletableFuture<Void> firstRow = new CompletableFuture<>();
+
+        OutputStream out = body.getOutputStream();
+
+        Multithreading.runAsync(() -> {
+            try (StatelessSession s = DatabaseSessionFactory.createStatelessSession()) {
+                // the JDBC driver only fetches rows in batches when inside a transaction
+                var tr = s.beginTransaction();
+
+                // not closed on failure, that would end the body as if it was complete
+                JsonGenerator generator = mapper.createGenerator(out);
+                generator.writeStartArray();
+                try (Stream<Video> videos = feed.apply(s)) {
+                    var it = videos.iterator();
+                    it.hasNext();
+                    firstRow.complete(null);
+                    while (it.hasNext())
+                        mapper.writeValue(generator, FeedHelpers.toStreamItem(it.next()));
+                }
+                generator.writeEndArray();
+
+                tr.commit();
+                generator.close();
+            } catch (Exception e) {
+                body.fail(e);
+                // past the first row, the status has already been sent, so the client sees a broken response
+                if (!firstRow.completeExceptionally(e))
+                    ExceptionHandler.handle(e);
+            }
+        });
+
+        try (var ignored = ServerTiming.phase("db")) {
+            firstRow.get();
+        } catch (ExecutionException e) {
+            ExceptionUtils.rethrow(e.getCause());
+        } catch (InterruptedException e) {
+            ExceptionUtils.rethrow(e);
         }
     }
 
@@ -8,27 +8,24 @@ import me.kavin.piped.consts.Constants;
 import me.kavin.piped.utils.DatabaseHelper;
 import me.kavin.piped.utils.DatabaseSessionFactory;
 import me.kavin.piped.utils.ExceptionHandler;
-import me.kavin.piped.utils.RequestUtils;
+import me.kavin.piped.utils.Multithreading;
+import me.kavin.piped.utils.PasswordHasher;
+import me.kavin.piped.utils.PwnedPasswords;
 import me.kavin.piped.utils.obj.db.User;
 import me.kavin.piped.utils.resp.*;
-import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.hibernate.Session;
 import org.hibernate.StatelessSession;
-import org.springframework.security.crypto.argon2.Argon2PasswordEncoder;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 
-import java.io.IOException;
+import javax.annotation.Nullable;
 import java.util.Set;
 import java.util.UUID;
 
 import static me.kavin.piped.consts.Constants.mapper;
 
 public class UserHandlers {
-    private static final Argon2PasswordEncoder argon2PasswordEncoder = Argon2PasswordEncoder.defaultsForSpringSecurity_v5_8();
-    private static final BCryptPasswordEncoder bcryptPasswordEncoder = new BCryptPasswordEncoder();
 
-    public static byte[] registerResponse(String user, String pass) throws Exception {
+    public static byte[] registerResponse(String user, String pass, String clientIp) throws Exception {
 
         if (Constants.DISABLE_REGISTRATION)
             ExceptionHandler.throwErrorResponse(new DisabledRegistrationResponse());
@@ -41,96 +38,75 @@ public class UserHandlers {
 
         user = user.toLowerCase();
 
-        try (Session s = DatabaseSessionFactory.createSession()) {
-            CriteriaBuilder cb = s.getCriteriaBuilder();
-            CriteriaQuery<User> cr = cb.createQuery(User.class);
-            Root<User> root = cr.from(User.class);
-            cr.select(root).where(cb.equal(root.get("username"), user));
-            boolean registered = s.createQuery(cr).uniqueResult() != null;
-
-            if (registered)
-                ExceptionHandler.throwErrorResponse(new AlreadyRegisteredResponse());
-
-            if (Constants.COMPROMISED_PASSWORD_CHECK) {
-                String sha1Hash = DigestUtils.sha1Hex(pass).toUpperCase();
-                String prefix = sha1Hash.substring(0, 5);
-                String suffix = sha1Hash.substring(5);
-                String[] entries = RequestUtils
-                        .sendGet("https://api.pwnedpasswords.com/range/" + prefix, "github.com/TeamPiped/Piped-Backend")
-                        .thenApplyAsync(str -> str.split("\n"))
-                        .get();
-                for (String entry : entries)
-                    if (StringUtils.substringBefore(entry, ":").equals(suffix))
-                        ExceptionHandler.throwErrorResponse(new CompromisedPasswordResponse());
-            }
-
-            User newuser = new User(user, argon2PasswordEncoder.encode(pass), Set.of());
+        if (findUser(user) != null)
+            ExceptionHandler.throwErrorResponse(new AlreadyRegisteredResponse());
 
-            var tr = s.beginTransaction();
-            s.persist(newuser);
-            tr.commit();
+        if (Constants.COMPROMISED_PASSWORD_CHECK && PwnedPasswords.isCompromised(pass))
+            ExceptionHandler.throwErrorResponse(new CompromisedPasswordResponse());
 
+        // hashed without a database session or permit, which hashing would otherwise hold for its whole duration
+        User newuser = new User(user, PasswordHasher.encode(pass, hashClients(clientIp, user)), Set.of());
 
-            return mapper.writeValueAsBytes(new LoginResponse(newuser.getSessionId()));
-        }
-    }
+        Multithreading.getDbBulkhead().call(() -> {
+            try (Session s = DatabaseSessionFactory.createSession()) {
+                var tr = s.beginTransaction();
+                s.persist(newuser);
+                tr.commit();
+            }
+            return null;
+        });
 
-    private static boolean hashMatch(String hash, String pass) {
-        return hash.startsWith("$argon2") ?
-                argon2PasswordEncoder.matches(pass, hash) :
-                bcryptPasswordEncoder.matches(pass, hash);
+        return mapper.writeValueAsBytes(new LoginResponse(newuser.getSessionId()));
     }
 
-    public static byte[] loginResponse(String user, String pass)
-            throws IOException {
+    public static byte[] loginResponse(String user, String pass, String clientIp)
+            throws Exception {
 
         if (user == null || pass == null)
             ExceptionHandler.throwErrorResponse(new InvalidRequestResponse("username and password are required parameters"));
 
         user = user.toLowerCase();
 
-        try (StatelessSession s = DatabaseSessionFactory.createStatelessSession()) {
-            CriteriaBuilder cb = s.getCriteriaBuilder();
-            CriteriaQuery<User> cr = cb.createQuery(User.class);
-            Root<User> root = cr.from(User.class);
-            cr.select(root).where(root.get("username").in(user));
-
-            User dbuser = s.createQuery(cr).uniqueResult();
-
-            if (dbuser != null) {
-                String hash = dbuser.getPassword();
-                if (hashMatch(hash, pass)) {
-                    return mapper.writeValueAsBytes(new LoginResponse(dbuser.getSessionId()));
-                }
-            }
+        User dbuser = findUser(user);
 
-            ExceptionHandler.throwErrorResponse(new IncorrectCredentialsResponse());
-            return null;
+        if (dbuser != null) {
+            String hash = dbuser.getPassword();
+            if (PasswordHasher.matches(pass, hash, hashClients(clientIp, user))) {
+                return mapper.writeValueAsBytes(new LoginResponse(dbuser.getSessionId()));
+            }
         }
+
+        ExceptionHandler.throwErrorResponse(new IncorrectCredentialsResponse());
+        return null;
     }
 
-    public static byte[] deleteUserResponse(String session, String pass) throws IOException {
+    public static byte[] deleteUserResponse(String session, String pass, String clientIp) throws Exception {
 
         if (StringUtils.isBlank(session) || StringUtils.isBlank(pass))
             ExceptionHandler.throwErrorResponse(new InvalidRequestResponse("session and password are required parameters"));
 
-        try (Session s = DatabaseSessionFactory.createSession()) {
-            User user = DatabaseHelper.getUserFromSession(session);
+        User user = Multithreading.getDbBulkhead().call(() -> DatabaseHelper.getUserFromSession(session));
 
-            if (user == null)
-                ExceptionHandler.throwErrorResponse(new AuthenticationFailureResponse());
+        if (user == null)
+            ExceptionHandler.throwErrorResponse(new AuthenticationFailureResponse());
 
-            String hash = user.getPassword();
+        String hash = user.getPassword();
 
-            if (!hashMatch(hash, pass))
-                ExceptionHandler.throwErrorResponse(new IncorrectCredentialsResponse());
+        if (!PasswordHasher.matches(pass, hash, hashClients(clientIp, user.getUsername())))
+            ExceptionHandler.throwErrorResponse(new IncorrectCredentialsResponse());
 
-            var tr = s.beginTransaction();
-            s.remove(user);
-            tr.commit();
+        Multithreading.getDbBulkhead().call(() -> {
+            try (Session s = DatabaseSessionFactory.createSession()) {
+                var tr = s.beginTransaction();
+                s.remove(user);
+                tr.commit();
+            }
+            return null;
+        });
 
-            return mapper.writeValueAsBytes(new DeleteUserResponse(user.getUsername()));
-        }
+        DatabaseHelper.invalidateSession(session);
+
+        return mapper.writeValueAsBytes(new DeleteUserResponse(user.getUsername()));
     }
 
     public static byte[] logoutResponse(String session) throws JsonProcessingException {
@@ -144,6 +120,7 @@ public class UserHandlers {
                     .setParameter("sessionId", session).setParameter("newSessionId", String.valueOf(UUID.randomUUID()))
                     .executeUpdate() > 0) {
                 tr.commit();
+                DatabaseHelper.invalidateSession(session);
                 return Constants.mapper.writeValueAsBytes(new AcceptedResponse());
             } else
                 tr.rollback();
@@ -151,4 +128,29 @@ public class UserHandlers {
 
         return Constants.mapper.writeValueAsBytes(new AuthenticationFailureResponse());
     }
+
+    /**
+     * Looks the user up in a short session of its own, so that no session is open while the password is hashed.
+     */
+    private static User findUser(String username) throws Exception {
+        return Multithreading.getDbBulkhead().call(() -> {
+            try (StatelessSession s = DatabaseSessionFactory.createStatelessSession()) {
+                CriteriaBuilder cb = s.getCriteriaBuilder();
+                CriteriaQuery<User> cr = cb.createQuery(User.class);
+                Root<User> root = cr.from(User.class);
+                cr.select(root).where(cb.equal(root.get("username"), username));
+
+                return s.createQuery(cr).uniqueResult();
+            }
+        });
+    }
+
+    /**
+     * The keys the password hasher limits concurrent hashes by, the IP address is only known behind a configured proxy.
+     */
+    private static String[] hashClients(@Nullable String clientIp, String user) {
+        return clientIp == null
+                ? new String[]{"user:" + user}
+                : new String[]{"ip:" + clientIp, "user:" + user};
+    }
 }
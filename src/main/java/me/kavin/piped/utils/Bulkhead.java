@@ -0,0 +1,106 @@
+package me.kavin.piped.utils;
+
+import me.kavin.piped.utils.resp.ServiceUnavailableResponse;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps how much of one kind of work can run at once, so that a slow dependency only uses up its own share of the
+ * server. Work beyond the cap waits in a bounded queue, and is rejected with a 503 once that is full or the wait
+ * times out.
+ * <p>
+ * Callers block while queued, so this is meant to be used from virtual threads.
+ */
+public class Bulkhead {
+
+    private final String name;
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final long queueTimeout;
+
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param queueTimeout the longest time a call may wait for a permit, in milliseconds, 0 to fail fast
+     */
+    public Bulkhead(String name, int maxConcurrent, int maxQueued, long queueTimeout) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        this.queueTimeout = queueTimeout;
+        this.permits = new Semaphore(maxConcurrent, true);
+    }
+
+    public <T> T call(Callable<T> callable) throws Exception {
+        acquire();
+        try {
+            return callable.call();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * For work that outlives the call that started it, which must then {@link #release()} the permit once it is done.
+     */
+    public void acquire() throws InterruptedException {
+        if (!permits.tryAcquire()) {
+            if (queueTimeout <= 0)
+                reject();
+
+            if (queued.incrementAndGet() > maxQueued) {
+                queued.decrementAndGet();
+                reject();
+            }
+
+            try {
+                if (!permits.tryAcquire(queueTimeout, TimeUnit.MILLISECONDS))
+                    reject();
+            } finally {
+                queued.decrementAndGet();
+            }
+        }
+    }
+
+    public void release() {
+        permits.release();
+        completed.increment();
+    }
+
+    private void reject() {
+        rejected.increment();
+        ExceptionHandler.throwErrorResponse(new ServiceUnavailableResponse());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public int getActive() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    public int getQueued() {
+        return queued.get();
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
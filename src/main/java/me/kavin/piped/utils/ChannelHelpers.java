@@ -72,6 +72,7 @@ public class ChannelHelpers {
             var tr = s.beginTransaction();
             s.update(channel);
             tr.commit();
+            DatabaseHelper.cacheChannel(channel);
         }
     }
 
@@ -0,0 +1,16 @@
+package me.kavin.piped.utils;
+
+import javax.annotation.Nullable;
+
+/**
+ * A response body that is kept in a cache together with its gzip encoding, so that cache hits are served without
+ * compressing anything.
+ *
+ * @param gzip the gzip encoded body, or null when the body is too small to be worth compressing
+ */
+public record CompressedBody(byte[] body, @Nullable byte[] gzip) {
+
+    public static CompressedBody of(byte[] body) {
+        return new CompressedBody(body, ResponseCompression.shouldCompress(body.length) ? ResponseCompression.gzip(body) : null);
+    }
+}
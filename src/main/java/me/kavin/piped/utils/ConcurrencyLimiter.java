@@ -0,0 +1,209 @@
+package me.kavin.piped.utils;
+
+import me.kavin.piped.consts.Constants;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An adaptive concurrency limit with a short, bounded queue in front of it.
+ * <p>
+ * The limit follows AIMD: it grows by one per limit-many requests that complete in reasonable time while the limit is
+ * actually in use, and shrinks by a tenth when a request fails or takes much longer than the long-term average latency.
+ * Requests that find the queue full, or that wait in it for too long, are rejected instead of piling up.
+ * <p>
+ * Only requests that reached upstream take part in this. Handlers call {@link #markCacheHit()} for requests they answer
+ * from a cache, as their latency would otherwise drag the average down to that of a cache lookup, and make every real
+ * upstream call look like congestion.
+ * <p>
+ * Callers block while queued, so this is meant to be used from virtual threads.
+ */
+public class ConcurrencyLimiter {
+
+    private static final Map<String, ConcurrencyLimiter> limiters = new ConcurrentSkipListMap<>();
+
+    private static final ThreadLocal<Boolean> cacheHit = new ThreadLocal<>();
+
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double LATENCY_SMOOTHING = 0.01;
+
+    private final String name;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueued;
+    private final long queueTimeout;
+
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private double averageLatency;
+    private long lastDecrease;
+
+    private final LongAdder rejected = new LongAdder();
+
+    private ConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, int maxQueued, long queueTimeout) {
+        this.name = name;
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueued = maxQueued;
+        this.queueTimeout = queueTimeout;
+    }
+
+    public static ConcurrencyLimiter of(String name) {
+        return limiters.computeIfAbsent(name, key -> new ConcurrencyLimiter(key,
+                Constants.ADMISSION_INITIAL_LIMIT, 1, Constants.ADMISSION_MAX_LIMIT,
+                Constants.ADMISSION_QUEUE_SIZE, TimeUnit.MILLISECONDS.toNanos(Constants.ADMISSION_QUEUE_TIMEOUT)));
+    }
+
+    public static Map<String, ConcurrencyLimiter> getLimiters() {
+        return limiters;
+    }
+
+    /**
+     * Marks the request handled on the current thread as answered from a cache, so that it isn't measured.
+     */
+    public static void markCacheHit() {
+        cacheHit.set(Boolean.TRUE);
+    }
+
+    /**
+     * Clears the mark of {@link #markCacheHit()} for the current thread.
+     *
+     * @return whether it was set
+     */
+    public static boolean takeCacheHit() {
+        boolean hit = cacheHit.get() != null;
+        cacheHit.remove();
+        return hit;
+    }
+
+    /**
+     * @return whether the request was admitted, in which case {@link #release(long, boolean)} must be called
+     */
+    public boolean acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            // queued requests go first
+            if (queued == 0 && inFlight < (int) limit) {
+                inFlight++;
+                return true;
+            }
+
+            if (queued >= maxQueued) {
+                rejected.increment();
+                return false;
+            }
+
+            queued++;
+            try {
+                long nanos = queueTimeout;
+                while (inFlight >= (int) limit) {
+                    if (nanos <= 0) {
+                        rejected.increment();
+                        return false;
+                    }
+                    nanos = available.awaitNanos(nanos);
+                }
+                inFlight++;
+                return true;
+            } finally {
+                queued--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases a request that was answered from a cache, without adapting the limit to it.
+     */
+    public void releaseCacheHit() {
+        lock.lock();
+        try {
+            inFlight--;
+            if (inFlight < (int) limit && lock.hasWaiters(available))
+                available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param latency how long the request took, in nanoseconds
+     * @param failed  whether the request failed in a way that suggests overload
+     */
+    public void release(long latency, boolean failed) {
+        lock.lock();
+        try {
+            boolean saturated = inFlight * 2 >= (int) limit;
+            inFlight--;
+
+            if (averageLatency == 0)
+                averageLatency = latency;
+
+            long now = System.nanoTime();
+
+            if (failed || latency > averageLatency * LATENCY_TOLERANCE) {
+                // back off at most once per average latency, as the requests of one burst all see the same congestion
+                if (now - lastDecrease > averageLatency) {
+                    limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                    lastDecrease = now;
+                }
+            } else if (saturated) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+
+            averageLatency += (latency - averageLatency) * LATENCY_SMOOTHING;
+
+            for (int free = (int) limit - inFlight; free > 0 && lock.hasWaiters(available); free--)
+                available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
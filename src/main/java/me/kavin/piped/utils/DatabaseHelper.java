@@ -1,5 +1,7 @@
 package me.kavin.piped.utils;
 
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
 import jakarta.persistence.criteria.CriteriaBuilder;
 import jakarta.persistence.criteria.CriteriaQuery;
 import jakarta.persistence.criteria.JoinType;
@@ -25,12 +27,43 @@ import static me.kavin.piped.consts.Constants.YOUTUBE_SERVICE;
 
 public class DatabaseHelper {
 
+    /**
+     * Users by session id, as nearly every authenticated request starts with this lookup.
+     * Sessions that are logged out or deleted must be invalidated through {@link #invalidateSession(String)}.
+     */
+    private static final LoadingCache<String, User> sessionCache = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(Constants.SESSION_CACHE_TTL, TimeUnit.SECONDS)
+            .build(session -> {
+                try (StatelessSession s = DatabaseSessionFactory.createStatelessSession()) {
+                    return getUserFromSession(session, s);
+                }
+            });
+
     public static User getUserFromSession(String session) {
-        try (StatelessSession s = DatabaseSessionFactory.createStatelessSession()) {
-            return getUserFromSession(session, s);
-        }
+        if (session == null)
+            return null;
+
+        return sessionCache.get(session);
     }
 
+    public static void invalidateSession(String session) {
+        sessionCache.invalidate(session);
+    }
+
+    /**
+     * Channels by id, kept up to date by {@link #cacheChannel(Channel)} whenever a channel is saved or updated.
+     * The expiry only picks up changes made by other instances.
+     */
+    private static final LoadingCache<String, Channel> channelCache = Caffeine.newBuilder()
+            .maximumSize(20_000)
+            .expireAfterWrite(1, TimeUnit.HOURS)
+            .build(id -> {
+                try (StatelessSession s = DatabaseSessionFactory.createStatelessSession()) {
+                    return getChannelFromId(s, id);
+                }
+            });
+
     public static User getUserFromSession(String session, SharedSessionContract s) {
         CriteriaBuilder cb = s.getCriteriaBuilder();
         CriteriaQuery<User> cr = cb.createQuery(User.class);
@@ -62,9 +95,23 @@ public class DatabaseHelper {
     }
 
     public static Channel getChannelFromId(String id) {
-        try (StatelessSession s = DatabaseSessionFactory.createStatelessSession()) {
-            return getChannelFromId(s, id);
-        }
+        if (id == null)
+            return null;
+
+        // callers are free to modify the channel they get, so never hand out the cached instance
+        return copyOf(channelCache.get(id));
+    }
+
+    public static void cacheChannel(Channel channel) {
+        if (channel.getUploaderId() != null)
+            channelCache.put(channel.getUploaderId(), copyOf(channel));
+    }
+
+    private static Channel copyOf(Channel channel) {
+        if (channel == null)
+            return null;
+
+        return new Channel(channel.getUploaderId(), channel.getUploader(), channel.getUploaderAvatar(), channel.isVerified());
     }
 
     public static List<Channel> getChannelsFromIds(SharedSessionContract s, Collection<String> id) {
@@ -198,6 +245,7 @@ public class DatabaseHelper {
             var tr = s.beginTransaction();
             s.insert(channel);
             tr.commit();
+            cacheChannel(channel);
         } catch (Exception e) {
             ExceptionHandler.handle(e);
         }
@@ -1,11 +1,15 @@
 package me.kavin.piped.utils;
 
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import me.kavin.piped.consts.Constants;
 import me.kavin.piped.utils.obj.db.*;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.StatelessSession;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
 
 public class DatabaseSessionFactory {
 
@@ -34,6 +38,19 @@ public class DatabaseSessionFactory {
         return sessionFactory.openStatelessSession();
     }
 
+    /**
+     * @return the HikariCP pool statistics, or null when another connection provider is configured
+     */
+    public static HikariPoolMXBean getPoolMXBean() {
+        ConnectionProvider provider = sessionFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry().getService(ConnectionProvider.class);
+
+        if (provider == null || !provider.isUnwrappableAs(HikariDataSource.class))
+            return null;
+
+        return provider.unwrap(HikariDataSource.class).getHikariPoolMXBean();
+    }
+
     public static void close() {
         sessionFactory.close();
     }
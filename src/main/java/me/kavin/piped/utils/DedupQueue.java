@@ -0,0 +1,68 @@
+package me.kavin.piped.utils;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Bounded work queue that ignores entries whose key is already queued or being processed.
+ * Keys are tracked in a concurrent set, so both checking and adding are O(1) without holding the queue lock.
+ * Consumers must call {@link #done(Object)} once they have finished with an entry.
+ */
+public class DedupQueue<K, E> {
+
+    private final Set<K> pending = ConcurrentHashMap.newKeySet();
+    private final BlockingQueue<E> queue;
+    private final Function<E, K> keyFunction;
+
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public DedupQueue(int capacity, Function<E, K> keyFunction) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.keyFunction = keyFunction;
+    }
+
+    /**
+     * @return false if the entry was a duplicate, or was dropped because the queue is full
+     */
+    public boolean offer(E entry) {
+        K key = keyFunction.apply(entry);
+
+        if (!pending.add(key)) {
+            duplicates.increment();
+            return false;
+        }
+
+        if (!queue.offer(entry)) {
+            pending.remove(key);
+            dropped.increment();
+            return false;
+        }
+
+        return true;
+    }
+
+    public E take() throws InterruptedException {
+        return queue.take();
+    }
+
+    public void done(E entry) {
+        pending.remove(keyFunction.apply(entry));
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+}
@@ -0,0 +1,123 @@
+package me.kavin.piped.utils;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.schabi.newpipe.extractor.downloader.Request;
+import org.schabi.newpipe.extractor.downloader.Response;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * On-disk archive of upstream exchanges, used by {@link RecordingDownloader} and {@link ReplayDownloader}.
+ * <p>
+ * The archive is a gzip stream of length-prefixed records, each holding the key of the request and the response.
+ * A truncated archive (eg. from a recording that was killed) is read up to the last complete record.
+ */
+public class DownloaderArchive {
+
+    /**
+     * Parameters that the extractor randomizes on every request, they would otherwise make every key unique.
+     */
+    private static final Pattern NONCE_QUERY_PATTERN = Pattern.compile("([?&](?:cpn|t|rn)=)[^&]*");
+    private static final Pattern NONCE_BODY_PATTERN = Pattern.compile("(\"(?:cpn|contentPlaybackNonce)\"\\s*:\\s*\")[^\"]*");
+
+    public static String key(Request request) {
+        String url = NONCE_QUERY_PATTERN.matcher(request.url()).replaceAll("$1");
+
+        String body = "";
+        if (request.dataToSend() != null)
+            body = NONCE_BODY_PATTERN.matcher(new String(request.dataToSend(), UTF_8)).replaceAll("$1");
+
+        return DigestUtils.sha256Hex(request.httpMethod() + ' ' + url + '\n' + body);
+    }
+
+    public static Map<String, Response> read(Path path) throws IOException {
+        Map<String, Response> responses = new Object2ObjectOpenHashMap<>();
+
+        try (var in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path))))) {
+            while (true) {
+                String key;
+                try {
+                    key = in.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                try {
+                    int code = in.readInt();
+                    String latestUrl = in.readBoolean() ? in.readUTF() : null;
+
+                    int headerCount = in.readInt();
+                    Map<String, List<String>> headers = new Object2ObjectOpenHashMap<>(headerCount);
+                    for (int i = 0; i < headerCount; i++) {
+                        String name = in.readUTF();
+                        int valueCount = in.readInt();
+                        List<String> values = new ObjectArrayList<>(valueCount);
+                        for (int j = 0; j < valueCount; j++)
+                            values.add(in.readUTF());
+                        headers.put(name, values);
+                    }
+
+                    byte[] body = new byte[in.readInt()];
+                    in.readFully(body);
+
+                    // the first recording of a request wins, which keeps replays deterministic
+                    responses.putIfAbsent(key, new Response(code, null, headers, new String(body, UTF_8), latestUrl));
+                } catch (EOFException e) {
+                    break;
+                }
+            }
+        } catch (EOFException ignored) {
+            // gzip trailer missing, the records read so far are still usable
+        }
+
+        return responses;
+    }
+
+    public static class Writer implements Closeable {
+
+        private final DataOutputStream out;
+
+        public Writer(Path path) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(path), true)));
+        }
+
+        public synchronized void write(String key, Response response) throws IOException {
+            out.writeUTF(key);
+            out.writeInt(response.responseCode());
+            // a flag, as writeUTF can't write null
+            out.writeBoolean(response.latestUrl() != null);
+            if (response.latestUrl() != null)
+                out.writeUTF(response.latestUrl());
+
+            Map<String, List<String>> headers = response.responseHeaders();
+            out.writeInt(headers.size());
+            for (var entry : headers.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (String value : entry.getValue())
+                    out.writeUTF(value);
+            }
+
+            byte[] body = response.responseBody().getBytes(UTF_8);
+            out.writeInt(body.length);
+            out.write(body);
+            out.flush();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package me.kavin.piped.utils;
+
+import org.apache.commons.codec.digest.MurmurHash3;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.annotation.Nullable;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+public class ETags {
+
+    /**
+     * A weak entity tag, derived from the bytes of the body before any content coding. It must be weak, as the same tag
+     * is sent with the gzip and identity encodings of the body, which differ byte for byte.
+     */
+    public static String of(byte[] body) {
+        return "W/\"" + hash(body) + '"';
+    }
+
+    /**
+     * A weak entity tag, derived from a summary of what the body was built from rather than from the body itself.
+     */
+    public static String weak(Object... parts) {
+        return "W/\"" + hash(StringUtils.join(parts, ':').getBytes(UTF_8)) + '"';
+    }
+
+    /**
+     * Checks an {@code If-None-Match} header against an entity tag, using the weak comparison required for GET.
+     */
+    public static boolean matches(@Nullable String ifNoneMatch, String etag) {
+        if (StringUtils.isBlank(ifNoneMatch))
+            return false;
+
+        String opaque = StringUtils.removeStart(etag, "W/");
+
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || StringUtils.removeStart(candidate, "W/").equals(opaque))
+                return true;
+        }
+
+        return false;
+    }
+
+    private static String hash(byte[] bytes) {
+        long[] hash = MurmurHash3.hash128x64(bytes);
+        return String.format("%016x%016x", hash[0], hash[1]);
+    }
+}
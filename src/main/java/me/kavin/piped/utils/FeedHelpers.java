@@ -6,22 +6,31 @@ import jakarta.persistence.criteria.CriteriaBuilder;
 import jakarta.persistence.criteria.CriteriaQuery;
 import jakarta.persistence.criteria.JoinType;
 import me.kavin.piped.consts.Constants;
+import me.kavin.piped.utils.obj.FeedCursor;
+import me.kavin.piped.utils.obj.FeedVersion;
+import me.kavin.piped.utils.obj.StreamItem;
 import me.kavin.piped.utils.obj.SubscriptionChannel;
 import me.kavin.piped.utils.obj.db.Channel;
 import me.kavin.piped.utils.obj.db.User;
 import me.kavin.piped.utils.obj.db.Video;
+import org.apache.commons.codec.digest.MurmurHash3;
 import org.hibernate.StatelessSession;
 
 import javax.annotation.Nullable;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static me.kavin.piped.utils.URLUtils.rewriteURL;
 
 public class FeedHelpers {
+
+    private static final int FEED_FETCH_SIZE = 200;
+
     public static Stream<Video> generateAuthenticatedFeed(StatelessSession s, long userId, int maxResults) {
         CriteriaBuilder cb = s.getCriteriaBuilder();
 
@@ -40,7 +49,102 @@ public class FeedHelpers {
                 )
                 .orderBy(cb.desc(root.get("uploaded")));
 
-        return s.createQuery(criteria).setTimeout(20).setMaxResults(maxResults).stream();
+        return s.createQuery(criteria)
+                .setTimeout(20)
+                .setFetchSize(FEED_FETCH_SIZE)
+                .setMaxResults(maxResults)
+                .stream();
+    }
+
+    /**
+     * Fetches a single page of the authenticated feed, using keyset pagination on (uploaded, id).
+     * Unlike offset pagination, every page only touches a bounded slice of the videos index.
+     *
+     * @param cursor the cursor of the last video of the previous page, or null for the first page
+     */
+    public static List<Video> generateAuthenticatedFeedPage(StatelessSession s, long userId, @Nullable FeedCursor cursor, int pageSize) {
+        CriteriaBuilder cb = s.getCriteriaBuilder();
+
+        CriteriaQuery<Video> criteria = cb.createQuery(Video.class);
+        var root = criteria.from(Video.class);
+        root.fetch("channel", JoinType.INNER);
+        var subquery = criteria.subquery(String.class);
+        var subroot = subquery.from(User.class);
+        subquery.select(subroot.get("subscribed_ids"))
+                .where(cb.equal(subroot.get("id"), userId));
+
+        var subscribed = root.get("channel").get("uploader_id").in(subquery);
+
+        if (cursor != null) {
+            // (uploaded, id) < (cursor.uploaded, cursor.id)
+            subscribed = cb.and(subscribed, cb.or(
+                    cb.lessThan(root.get("uploaded"), cursor.uploaded()),
+                    cb.and(
+                            cb.equal(root.get("uploaded"), cursor.uploaded()),
+                            cb.lessThan(root.get("id"), cursor.id())
+                    )
+            ));
+        }
+
+        criteria.select(root)
+                .where(subscribed)
+                .orderBy(cb.desc(root.get("uploaded")), cb.desc(root.get("id")));
+
+        return s.createQuery(criteria).setTimeout(20).setMaxResults(pageSize).list();
+    }
+
+    /**
+     * Probes the authenticated feed without loading it, which only needs the (uploader_id, uploaded) index.
+     */
+    public static FeedVersion getAuthenticatedFeedVersion(StatelessSession s, long userId) {
+        CriteriaBuilder cb = s.getCriteriaBuilder();
+
+        CriteriaQuery<Object[]> criteria = cb.createQuery(Object[].class);
+        var root = criteria.from(Video.class);
+        var subquery = criteria.subquery(String.class);
+        var subroot = subquery.from(User.class);
+        subquery.select(subroot.get("subscribed_ids"))
+                .where(cb.equal(subroot.get("id"), userId));
+
+        criteria.multiselect(cb.max(root.<Long>get("uploaded")), cb.count(root))
+                .where(root.get("channel").get("uploader_id").in(subquery));
+
+        return toFeedVersion(s.createQuery(criteria).setTimeout(20).getSingleResult());
+    }
+
+    /**
+     * An order independent digest of the channels the user is subscribed to. The feed version alone misses an
+     * unsubscribe and a subscribe that happen to leave the newest upload and the number of videos as they were.
+     */
+    public static long getSubscriptionsDigest(StatelessSession s, long userId) {
+        CriteriaBuilder cb = s.getCriteriaBuilder();
+
+        CriteriaQuery<String> criteria = cb.createQuery(String.class);
+        var root = criteria.from(User.class);
+        criteria.select(root.<User, String>join("subscribed_ids"))
+                .where(cb.equal(root.get("id"), userId));
+
+        long digest = 0;
+        for (String channelId : s.createQuery(criteria).setTimeout(20).list())
+            digest += MurmurHash3.hash128x64(channelId.getBytes(UTF_8))[0];
+
+        return digest;
+    }
+
+    public static FeedVersion getUnauthenticatedFeedVersion(StatelessSession s, Set<String> channelIds) {
+        CriteriaBuilder cb = s.getCriteriaBuilder();
+
+        CriteriaQuery<Object[]> criteria = cb.createQuery(Object[].class);
+        var root = criteria.from(Video.class);
+
+        criteria.multiselect(cb.max(root.<Long>get("uploaded")), cb.count(root))
+                .where(root.get("channel").get("id").in(channelIds));
+
+        return toFeedVersion(s.createQuery(criteria).setTimeout(20).getSingleResult());
+    }
+
+    private static FeedVersion toFeedVersion(Object[] row) {
+        return new FeedVersion(row[0] == null ? 0 : ((Number) row[0]).longValue(), ((Number) row[1]).longValue());
     }
 
     public static Stream<Video> generateUnauthenticatedFeed(StatelessSession s, Set<String> channelIds, int maxResults) {
@@ -59,6 +163,7 @@ public class FeedHelpers {
 
         return s.createQuery(criteria)
                 .setTimeout(20)
+                .setFetchSize(FEED_FETCH_SIZE)
                 .setMaxResults(maxResults)
                 .stream();
     }
@@ -88,6 +193,15 @@ public class FeedHelpers {
         };
     }
 
+    public static StreamItem toStreamItem(Video video) {
+        var channel = video.getChannel();
+
+        return new StreamItem("/watch?v=" + video.getId(), video.getTitle(),
+                rewriteURL(video.getThumbnail()), channel.getUploader(), "/channel/" + channel.getUploaderId(),
+                rewriteURL(channel.getUploaderAvatar()), null, null, video.getDuration(), video.getViews(),
+                video.getUploaded(), channel.isVerified(), video.isShort());
+    }
+
     public static Stream<SubscriptionChannel> generateSubscriptionsList(Stream<Channel> channels) {
         return channels.parallel()
                 .filter(channel -> channel.getUploader() != null)
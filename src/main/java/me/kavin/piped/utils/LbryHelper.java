@@ -1,28 +1,99 @@
 package me.kavin.piped.utils;
 
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import me.kavin.piped.consts.Constants;
 import org.apache.commons.lang3.StringUtils;
 import rocks.kavin.reqwest4j.ReqwestUtils;
 import rocks.kavin.reqwest4j.Response;
 
 import java.net.URI;
+import java.time.Duration;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import static me.kavin.piped.consts.Constants.mapper;
 import static me.kavin.piped.utils.URLUtils.silentEncode;
 
 public class LbryHelper {
 
+    private static final int MAX_BATCH_SIZE = 50;
+
+    private static final String NO_MIRROR = "";
+
+    // most videos have no mirror, but one may be added later, so misses are forgotten sooner
+    private static final AsyncCache<String, String> lbryIdCache = Caffeine.newBuilder()
+            .maximumSize(Constants.LBRY_CACHE_SIZE)
+            .expireAfter(Expiry.creating((String videoId, String lbryId) ->
+                    NO_MIRROR.equals(lbryId) ? Duration.ofHours(1) : Duration.ofDays(1)))
+            .buildAsync();
+
+    private static final Executor batchDelay = CompletableFuture.delayedExecutor(Constants.LBRY_BATCH_WINDOW,
+            TimeUnit.MILLISECONDS, Multithreading.getCachedExecutor());
+
+    private static Map<String, CompletableFuture<String>> pending = new HashMap<>();
+
     public static String getLBRYId(String videoId) throws Exception {
+        return getLBRYIdAsync(videoId).get();
+    }
+
+    /**
+     * Lookups within {@code LBRY_BATCH_WINDOW} milliseconds of each other are resolved together, with one request.
+     *
+     * @return a future of the LBRY id, completed with null if the video has no mirror
+     */
+    public static CompletableFuture<String> getLBRYIdAsync(String videoId) {
 
         if (Constants.DISABLE_LBRY)
-            return null;
+            return CompletableFuture.completedFuture(null);
+
+        return lbryIdCache.get(videoId, (key, executor) -> enqueue(key))
+                .thenApply(lbryId -> NO_MIRROR.equals(lbryId) ? null : lbryId);
+    }
+
+    private static synchronized CompletableFuture<String> enqueue(String videoId) {
+        var batch = pending;
+
+        var future = batch.computeIfAbsent(videoId, key -> new CompletableFuture<>());
+
+        if (batch.size() >= MAX_BATCH_SIZE) {
+            pending = new HashMap<>();
+            Multithreading.getCachedExecutor().execute(() -> resolve(batch));
+        } else if (batch.size() == 1) {
+            batchDelay.execute(() -> {
+                synchronized (LbryHelper.class) {
+                    // already sent, as it filled up before the window ended
+                    if (pending != batch)
+                        return;
+                    pending = new HashMap<>();
+                }
+                resolve(batch);
+            });
+        }
+
+        return future;
+    }
 
-        return RequestUtils.sendGetJson("https://api.lbry.com/yt/resolve?video_ids=" + silentEncode(videoId))
-                .thenApplyAsync(json -> json.at("/data/videos")
-                        .path(videoId)
-                        .asText(null)
-                ).get();
+    private static void resolve(Map<String, CompletableFuture<String>> batch) {
+        RequestUtils.sendGetJson("https://api.lbry.com/yt/resolve?video_ids=" + silentEncode(String.join(",", batch.keySet())))
+                .whenComplete((json, e) -> {
+                    if (e != null) {
+                        batch.values().forEach(future -> future.completeExceptionally(e));
+                        return;
+                    }
+                    var videos = json.at("/data/videos");
+                    // only a proper response says that a video has no mirror, anything else must not be cached
+                    if (videos.isMissingNode()) {
+                        var error = new IllegalStateException("Unexpected LBRY resolve response: " + json);
+                        batch.values().forEach(future -> future.completeExceptionally(error));
+                        return;
+                    }
+                    batch.forEach((videoId, future) -> future.complete(videos.path(videoId).asText(NO_MIRROR)));
+                });
     }
 
     public static String getLBRYStreamURL(String lbryId)
@@ -0,0 +1,39 @@
+package me.kavin.piped.utils;
+
+import io.activej.http.*;
+import io.activej.promise.Promisable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A {@link RoutingServlet} that records {@link RouteMetrics} against the route pattern each request matched.
+ */
+public class MeteredRoutingServlet implements AsyncServlet {
+
+    private final RoutingServlet router = RoutingServlet.create();
+
+    public static MeteredRoutingServlet create() {
+        return new MeteredRoutingServlet();
+    }
+
+    public MeteredRoutingServlet map(@Nullable HttpMethod method, @NotNull String path, @NotNull AsyncServlet servlet) {
+        RouteMetrics metrics = RouteMetrics.of(method == null ? "*" : method.name(), path);
+        router.map(method, path, request -> {
+            long before = System.nanoTime();
+            metrics.begin();
+            try {
+                return servlet.serve(request).promise()
+                        .whenComplete((response, e) -> metrics.record(e == null ? response.getCode() : 500, System.nanoTime() - before));
+            } catch (Exception e) {
+                metrics.record(500, System.nanoTime() - before);
+                throw e;
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public @NotNull Promisable<HttpResponse> serve(@NotNull HttpRequest request) throws Exception {
+        return router.serve(request);
+    }
+}
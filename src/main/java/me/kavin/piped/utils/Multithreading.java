@@ -1,17 +1,27 @@
 package me.kavin.piped.utils;
 
+import me.kavin.piped.consts.Constants;
+
 import java.util.concurrent.*;
 import java.util.function.Supplier;
 
 public class Multithreading {
 
     private static final ExecutorService es = Executors.newVirtualThreadPerTaskExecutor();
-    private static final ExecutorService esLimited = Executors
+    private static final ThreadPoolExecutor esLimited = (ThreadPoolExecutor) Executors
             .newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 8);
-    private static final ExecutorService esLimitedPubSub = Executors
+    private static final ThreadPoolExecutor esLimitedPubSub = (ThreadPoolExecutor) Executors
             .newFixedThreadPool(Runtime.getRuntime().availableProcessors());
     private static final ForkJoinPool forkJoinPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
 
+    private static final Bulkhead upstream = new Bulkhead("upstream", Constants.BULKHEAD_UPSTREAM_CONCURRENCY,
+            Constants.BULKHEAD_UPSTREAM_QUEUE, Constants.BULKHEAD_QUEUE_TIMEOUT);
+    private static final Bulkhead db = new Bulkhead("db", Constants.BULKHEAD_DB_CONCURRENCY,
+            Constants.BULKHEAD_DB_QUEUE, Constants.BULKHEAD_QUEUE_TIMEOUT);
+    private static final Bulkhead cpu = new Bulkhead("cpu", Constants.BULKHEAD_CPU_CONCURRENCY > 0
+            ? Constants.BULKHEAD_CPU_CONCURRENCY : Runtime.getRuntime().availableProcessors(),
+            Constants.BULKHEAD_CPU_QUEUE, Constants.BULKHEAD_QUEUE_TIMEOUT);
+
     public static void runAsync(final Runnable runnable) {
         es.submit(runnable);
     }
@@ -32,6 +42,40 @@ public class Multithreading {
         return es;
     }
 
+    /**
+     * For request handling that waits on YouTube or other upstream services.
+     */
+    public static Bulkhead getUpstreamBulkhead() {
+        return upstream;
+    }
+
+    /**
+     * For request handling that only needs the database.
+     */
+    public static Bulkhead getDbBulkhead() {
+        return db;
+    }
+
+    /**
+     * For request handling that is bound by CPU time, like the account routes that hash passwords. Their database work
+     * takes a permit of the db bulkhead only while it runs, so a queue of hashes never holds one.
+     */
+    public static Bulkhead getCpuBulkhead() {
+        return cpu;
+    }
+
+    public static ThreadPoolExecutor getLimitedExecutor() {
+        return esLimited;
+    }
+
+    public static ThreadPoolExecutor getLimitedPubSubExecutor() {
+        return esLimitedPubSub;
+    }
+
+    public static ForkJoinPool getForkJoinPool() {
+        return forkJoinPool;
+    }
+
     public static <U> Future<U> supplyAsync(Supplier<U> supplier) {
         return es.submit(supplier::get);
     }
@@ -0,0 +1,135 @@
+package me.kavin.piped.utils;
+
+import me.kavin.piped.consts.Constants;
+import me.kavin.piped.utils.resp.ServiceUnavailableResponse;
+import me.kavin.piped.utils.resp.TooManyRequestsResponse;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.springframework.security.crypto.argon2.Argon2PasswordEncoder;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs password hashing on its own pool of platform threads, sized to the CPU, so that memory-hard hashing never
+ * occupies the carrier threads the virtual threads of other requests run on.
+ * <p>
+ * Each client, identified by its IP address when the reverse proxy reports it and by the username it targets, may only
+ * have a few hashes queued or running at a time, so a single source can't take the whole queue. Work beyond that, or beyond the bounded queue,
+ * is rejected immediately.
+ */
+public class PasswordHasher {
+
+    private static final Argon2PasswordEncoder argon2PasswordEncoder = Argon2PasswordEncoder.defaultsForSpringSecurity_v5_8();
+    private static final BCryptPasswordEncoder bcryptPasswordEncoder = new BCryptPasswordEncoder();
+
+    private static final int THREADS = Constants.PASSWORD_HASH_THREADS > 0
+            ? Constants.PASSWORD_HASH_THREADS : Runtime.getRuntime().availableProcessors();
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS,
+            0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(Constants.PASSWORD_HASH_QUEUE),
+            Thread.ofPlatform().name("password-hasher-", 0).daemon().factory(), new ThreadPoolExecutor.AbortPolicy());
+
+    private static final Map<String, Integer> pending = new ConcurrentHashMap<>();
+
+    private static final LongAdder hashes = new LongAdder();
+    private static final LongAdder hashTime = new LongAdder();
+    private static final LongAdder waitTime = new LongAdder();
+    private static final LongAdder rejected = new LongAdder();
+
+    public static String encode(String pass, String... clients) throws Exception {
+        return run(() -> argon2PasswordEncoder.encode(pass), clients);
+    }
+
+    public static boolean matches(String pass, String hash, String... clients) throws Exception {
+        return run(() -> hash.startsWith("$argon2") ?
+                argon2PasswordEncoder.matches(pass, hash) :
+                bcryptPasswordEncoder.matches(pass, hash), clients);
+    }
+
+    private static <T> T run(Callable<T> task, String... clients) throws Exception {
+        int admitted = 0;
+        try {
+            for (String client : clients) {
+                if (pending.merge(client, 1, Integer::sum) > Constants.PASSWORD_HASH_PER_CLIENT) {
+                    release(client);
+                    rejected.increment();
+                    ExceptionHandler.throwErrorResponse(new TooManyRequestsResponse());
+                }
+                admitted++;
+            }
+
+            long submitted = System.nanoTime();
+
+            Future<T> future;
+            try {
+                future = executor.submit(() -> {
+                    long start = System.nanoTime();
+                    waitTime.add(start - submitted);
+                    try {
+                        return task.call();
+                    } finally {
+                        hashTime.add(System.nanoTime() - start);
+                        hashes.increment();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                rejected.increment();
+                ExceptionHandler.throwErrorResponse(new ServiceUnavailableResponse());
+                return null;
+            }
+
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                ExceptionUtils.rethrow(e.getCause());
+                return null;
+            } catch (InterruptedException e) {
+                future.cancel(false);
+                throw e;
+            }
+        } finally {
+            for (int i = 0; i < admitted; i++)
+                release(clients[i]);
+        }
+    }
+
+    private static void release(String client) {
+        pending.computeIfPresent(client, (key, count) -> count == 1 ? null : count - 1);
+    }
+
+    public static int getThreads() {
+        return THREADS;
+    }
+
+    public static int getActive() {
+        return executor.getActiveCount();
+    }
+
+    public static int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    public static long getHashes() {
+        return hashes.sum();
+    }
+
+    /**
+     * @return the total time spent hashing, in nanoseconds
+     */
+    public static long getHashTime() {
+        return hashTime.sum();
+    }
+
+    /**
+     * @return the total time hashes spent queued, in nanoseconds
+     */
+    public static long getWaitTime() {
+        return waitTime.sum();
+    }
+
+    public static long getRejected() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,79 @@
+package me.kavin.piped.utils;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import me.kavin.piped.consts.Constants;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks passwords against the Pwned Passwords k-anonymity API, or against a local copy of the whole dataset when
+ * {@code PWNED_PASSWORDS_FILE} is set.
+ * <p>
+ * Range responses are kept as sorted arrays of the first 64 bits of every suffix, so repeated prefixes don't need
+ * another round trip and a lookup is a binary search. With at most a few thousand suffixes per range, a 64-bit
+ * collision between a password and an unrelated breached hash is practically impossible.
+ */
+public class PwnedPasswords {
+
+    private static final LoadingCache<Integer, long[]> rangeCache = Caffeine.newBuilder()
+            .maximumSize(Constants.PWNED_CACHE_SIZE)
+            .expireAfterWrite(Constants.PWNED_CACHE_TTL, TimeUnit.HOURS)
+            .build(PwnedPasswords::fetchRange);
+
+    private static volatile PwnedPasswordsFile file;
+
+    /**
+     * Opens the local copy of the dataset, if one is configured. This runs at startup, so that a missing or broken file
+     * stops the instance, instead of failing registrations later on.
+     */
+    public static void init() throws IOException {
+        if (!StringUtils.isEmpty(Constants.PWNED_PASSWORDS_FILE))
+            file = PwnedPasswordsFile.open(Path.of(Constants.PWNED_PASSWORDS_FILE));
+    }
+
+    public static boolean isCompromised(String pass) {
+        byte[] hash = DigestUtils.sha1(pass);
+
+        int prefix = ((hash[0] & 0xFF) << 12) | ((hash[1] & 0xFF) << 4) | ((hash[2] & 0xFF) >>> 4);
+
+        long suffix = 0;
+        for (int i = 2; i < 10; i++)
+            suffix = (suffix << 8) | (hash[i] & 0xFF);
+        suffix = (suffix << 4) | ((hash[10] & 0xFF) >>> 4);
+
+        PwnedPasswordsFile file = PwnedPasswords.file;
+        if (file != null)
+            return file.contains(prefix, suffix);
+
+        return Arrays.binarySearch(rangeCache.get(prefix), suffix) >= 0;
+    }
+
+    private static long[] fetchRange(int prefix) throws Exception {
+        String body = RequestUtils
+                .sendGet("https://api.pwnedpasswords.com/range/" + String.format("%05X", prefix), "github.com/TeamPiped/Piped-Backend")
+                .get();
+
+        long[] suffixes = new long[StringUtils.countMatches(body, '\n') + 1];
+        int count = 0;
+
+        for (int start = 0; start < body.length(); ) {
+            int end = body.indexOf('\n', start);
+            if (end == -1)
+                end = body.length();
+            if (end - start > PwnedPasswordsFile.SUFFIX_LENGTH)
+                suffixes[count++] = PwnedPasswordsFile.parseSuffix(body, start);
+            start = end + 1;
+        }
+
+        // only the lookup relies on the order, so a signed sort is as good as an unsigned one
+        long[] sorted = Arrays.copyOf(suffixes, count);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+}
@@ -0,0 +1,118 @@
+package me.kavin.piped.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A memory-mapped copy of the whole Pwned Passwords dataset, as written by {@code PwnedPasswordsImporter}.
+ * <p>
+ * The file starts with {@link #MAGIC}, followed by an index of {@link #PREFIXES} + 1 longs holding the position of the
+ * first suffix of every 5 hex digit prefix, followed by the suffixes themselves. Only the first 64 bits of every
+ * suffix are kept, and they are sorted within each prefix, so a lookup is one binary search over a few hundred longs.
+ * All values are big-endian.
+ */
+public class PwnedPasswordsFile implements AutoCloseable {
+
+    public static final byte[] MAGIC = "PIPEDPWN".getBytes(StandardCharsets.US_ASCII);
+
+    public static final int PREFIXES = 1 << 20;
+
+    /**
+     * The number of hex digits of every suffix that are kept.
+     */
+    public static final int SUFFIX_LENGTH = 16;
+
+    public static final long DATA_OFFSET = MAGIC.length + (PREFIXES + 1) * 8L;
+
+    // a multiple of 8, so that no value spans two mappings
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] chunks;
+
+    private PwnedPasswordsFile(FileChannel channel, MappedByteBuffer[] chunks) {
+        this.channel = channel;
+        this.chunks = chunks;
+    }
+
+    public static PwnedPasswordsFile open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+
+            if (size < DATA_OFFSET)
+                throw new IOException("Not a Pwned Passwords file: " + path);
+
+            MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((size + CHUNK_SIZE - 1) >>> CHUNK_SHIFT)];
+            for (int i = 0; i < chunks.length; i++) {
+                long position = (long) i << CHUNK_SHIFT;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHUNK_SIZE, size - position));
+            }
+
+            byte[] magic = new byte[MAGIC.length];
+            chunks[0].get(0, magic);
+            if (!Arrays.equals(magic, MAGIC))
+                throw new IOException("Not a Pwned Passwords file: " + path);
+
+            // the last index entry is the number of suffixes, which catches a truncated file
+            long entries = chunks[0].getLong(MAGIC.length + PREFIXES * 8);
+            if (DATA_OFFSET + entries * 8 != size)
+                throw new IOException("Incomplete Pwned Passwords file: " + path);
+
+            return new PwnedPasswordsFile(channel, chunks);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param prefix the first 20 bits of the SHA-1 hash
+     * @param suffix the 64 bits that follow them
+     */
+    public boolean contains(int prefix, long suffix) {
+        long low = getLong(MAGIC.length + prefix * 8L);
+        long high = getLong(MAGIC.length + (prefix + 1) * 8L) - 1;
+
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            long value = getLong(DATA_OFFSET + mid * 8);
+            int cmp = Long.compareUnsigned(value, suffix);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Parses the first {@link #SUFFIX_LENGTH} hex digits at {@code start}.
+     */
+    public static long parseSuffix(CharSequence s, int start) {
+        long value = 0;
+        for (int i = start; i < start + SUFFIX_LENGTH; i++)
+            value = (value << 4) | Character.digit(s.charAt(i), 16);
+        return value;
+    }
+
+    private long getLong(long position) {
+        ByteBuffer chunk = chunks[(int) (position >>> CHUNK_SHIFT)];
+        return chunk.getLong((int) (position & (CHUNK_SIZE - 1)));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,45 @@
+package me.kavin.piped.utils;
+
+import org.schabi.newpipe.extractor.downloader.Downloader;
+import org.schabi.newpipe.extractor.downloader.Request;
+import org.schabi.newpipe.extractor.downloader.Response;
+import org.schabi.newpipe.extractor.exceptions.ReCaptchaException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Passes requests through to another downloader, and records every exchange to an archive for {@link ReplayDownloader}.
+ */
+public class RecordingDownloader extends Downloader {
+
+    private final Downloader delegate;
+    private final DownloaderArchive.Writer writer;
+
+    public RecordingDownloader(Downloader delegate, Path archive) throws IOException {
+        this.delegate = delegate;
+        this.writer = new DownloaderArchive.Writer(archive);
+
+        // the gzip trailer is only written on close
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }));
+    }
+
+    @Override
+    public Response execute(Request request) throws IOException, ReCaptchaException {
+        Response response = delegate.execute(request);
+
+        try {
+            writer.write(DownloaderArchive.key(request), response);
+        } catch (IOException e) {
+            ExceptionHandler.handle(e);
+        }
+
+        return response;
+    }
+}
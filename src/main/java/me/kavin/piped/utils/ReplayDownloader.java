@@ -0,0 +1,47 @@
+package me.kavin.piped.utils;
+
+import org.schabi.newpipe.extractor.downloader.Downloader;
+import org.schabi.newpipe.extractor.downloader.Request;
+import org.schabi.newpipe.extractor.downloader.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Serves responses recorded by {@link RecordingDownloader} without touching the network, for load testing.
+ * Requests that weren't recorded fail, instead of silently falling back to YouTube.
+ */
+public class ReplayDownloader extends Downloader {
+
+    private final Map<String, Response> responses;
+    private final long latency;
+
+    /**
+     * @param latency milliseconds to wait before every response, to simulate the upstream round trip
+     */
+    public ReplayDownloader(Path archive, long latency) throws IOException {
+        this.responses = DownloaderArchive.read(archive);
+        this.latency = latency;
+
+        System.out.println("Replaying " + responses.size() + " recorded responses from " + archive);
+    }
+
+    @Override
+    public Response execute(Request request) throws IOException {
+        Response response = responses.get(DownloaderArchive.key(request));
+
+        if (latency > 0)
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+
+        if (response == null)
+            throw new IOException("No recorded response for " + request.httpMethod() + " " + request.url());
+
+        return response;
+    }
+}
@@ -0,0 +1,63 @@
+package me.kavin.piped.utils;
+
+import me.kavin.piped.consts.Constants;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content negotiation and gzip encoding of response bodies. All of it is meant to run on the blocking executor, never
+ * on the event loop.
+ */
+public class ResponseCompression {
+
+    /**
+     * @return whether the client accepts gzip, according to its {@code Accept-Encoding} header
+     */
+    public static boolean acceptsGzip(@Nullable String acceptEncoding) {
+        if (StringUtils.isBlank(acceptEncoding))
+            return false;
+
+        for (String coding : acceptEncoding.split(",")) {
+            String name = StringUtils.substringBefore(coding, ';').trim();
+            if (!name.equalsIgnoreCase("gzip") && !name.equalsIgnoreCase("x-gzip") && !name.equals("*"))
+                continue;
+
+            String q = StringUtils.substringAfter(coding, "q=").trim();
+            try {
+                return q.isEmpty() || Double.parseDouble(q) > 0;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+        return false;
+    }
+
+    public static boolean shouldCompress(int length) {
+        return length >= Constants.COMPRESSION_MIN_SIZE;
+    }
+
+    /**
+     * Only textual bodies are compressed, binary ones like stored files don't shrink enough to be worth the CPU time.
+     */
+    public static boolean shouldCompress(String contentType, int length) {
+        return shouldCompress(length) && (contentType.startsWith("text/") || contentType.startsWith("application/json")
+                || contentType.endsWith("+xml"));
+    }
+
+    public static byte[] gzip(byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out, 8192)) {
+            gzip.write(body);
+        } catch (IOException e) {
+            // not possible with an in-memory stream
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+}
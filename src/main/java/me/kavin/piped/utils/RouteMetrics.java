@@ -0,0 +1,96 @@
+package me.kavin.piped.utils;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free request counters and latency histogram for a single route.
+ * <p>
+ * Latencies land in log-linear buckets (two per power of two, starting at 250µs), so the
+ * relative error of any quantile read off the histogram is bounded regardless of magnitude.
+ */
+public class RouteMetrics {
+
+    private static final Map<String, RouteMetrics> routes = new ConcurrentSkipListMap<>();
+
+    public static final long[] BUCKETS;
+
+    static {
+        long[] buckets = new long[36];
+        for (int i = 0; i < buckets.length; i++)
+            buckets[i] = Math.round(250_000 * Math.pow(2, i / 2.0));
+        BUCKETS = buckets;
+    }
+
+    private final String method;
+    private final String path;
+
+    private final LongAdder[] statusClasses = new LongAdder[5];
+    private final LongAdder[] buckets = new LongAdder[BUCKETS.length + 1];
+    private final LongAdder sum = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+
+    private RouteMetrics(String method, String path) {
+        this.method = method;
+        this.path = path;
+        for (int i = 0; i < statusClasses.length; i++)
+            statusClasses[i] = new LongAdder();
+        for (int i = 0; i < buckets.length; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    public static RouteMetrics of(String method, String path) {
+        return routes.computeIfAbsent(method + " " + path, key -> new RouteMetrics(method, path));
+    }
+
+    public static Map<String, RouteMetrics> getRoutes() {
+        return routes;
+    }
+
+    public void begin() {
+        inFlight.increment();
+    }
+
+    public void record(int code, long nanos) {
+        inFlight.decrement();
+
+        int statusClass = code / 100 - 1;
+        statusClasses[statusClass >= 0 && statusClass < statusClasses.length ? statusClass : 4].increment();
+
+        int idx = Arrays.binarySearch(BUCKETS, nanos);
+        buckets[idx >= 0 ? idx : -idx - 1].increment();
+        sum.add(nanos);
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getStatusCount(int statusClass) {
+        return statusClasses[statusClass - 1].sum();
+    }
+
+    /**
+     * @return non-cumulative bucket counts, the last entry being the overflow bucket
+     */
+    public long[] getBuckets() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = buckets[i].sum();
+        return counts;
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getInFlight() {
+        return inFlight.sum();
+    }
+}
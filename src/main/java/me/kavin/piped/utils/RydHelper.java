@@ -1,19 +1,38 @@
 package me.kavin.piped.utils;
 
 
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.LoadingCache;
 import me.kavin.piped.consts.Constants;
 
+import java.time.Duration;
+
 import static me.kavin.piped.utils.RequestUtils.sendGetJson;
 
 public class RydHelper {
+
+    // ratings are served stale while they are refreshed, and videos RYD knows nothing about are retried sooner
+    private static final LoadingCache<String, Double> ratingCache = Caffeine.newBuilder()
+            .maximumSize(Constants.RYD_CACHE_SIZE)
+            .refreshAfterWrite(Duration.ofMinutes(Constants.RYD_CACHE_REFRESH))
+            .expireAfter(Expiry.writing((String videoId, Double rating) ->
+                    rating < 0 ? Duration.ofMinutes(5) : Duration.ofMinutes(Constants.RYD_CACHE_TTL)))
+            .executor(Multithreading.getCachedExecutor())
+            .build(RydHelper::fetchDislikeRating);
+
     public static double getDislikeRating(String videoId) throws Exception {
 
         if (Constants.DISABLE_RYD)
             return -1;
 
+        return ratingCache.get(videoId);
+
+    }
+
+    private static double fetchDislikeRating(String videoId) throws Exception {
         return sendGetJson(Constants.RYD_PROXY_URL + "/votes/" + videoId)
                 .thenApply(tree -> tree.path("rating").asDouble(-1))
                 .get();
-
     }
 }
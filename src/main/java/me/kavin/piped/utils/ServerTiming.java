@@ -0,0 +1,90 @@
+package me.kavin.piped.utils;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * Durations of the phases a request went through, rendered as a {@code Server-Timing} header value.
+ * <p>
+ * Handlers record into the timing of the current thread through {@link #phase(String)}. Work done on other threads
+ * records into its own instance, which is then merged into the request's with {@link #addAll(ServerTiming)}.
+ */
+public class ServerTiming {
+
+    private static final ThreadLocal<ServerTiming> current = new ThreadLocal<>();
+
+    private final List<String> names = new ObjectArrayList<>();
+    private final LongArrayList durations = new LongArrayList();
+
+    public static ServerTiming current() {
+        ServerTiming timing = current.get();
+        if (timing == null) {
+            timing = new ServerTiming();
+            current.set(timing);
+        }
+        return timing;
+    }
+
+    public static Phase phase(String name) {
+        return current().start(name);
+    }
+
+    /**
+     * Removes the timing of the current thread.
+     *
+     * @return the header value for it, or null if nothing was recorded
+     */
+    public static @Nullable String drain() {
+        ServerTiming timing = current.get();
+        current.remove();
+        return timing == null ? null : timing.toHeaderValue();
+    }
+
+    public Phase start(String name) {
+        long before = System.nanoTime();
+        return () -> record(name, System.nanoTime() - before);
+    }
+
+    public synchronized void record(String name, long nanos) {
+        names.add(name);
+        durations.add(nanos);
+    }
+
+    public void addAll(ServerTiming other) {
+        if (other == this)
+            return;
+
+        List<String> otherNames;
+        long[] otherDurations;
+        synchronized (other) {
+            otherNames = List.copyOf(other.names);
+            otherDurations = other.durations.toLongArray();
+        }
+
+        synchronized (this) {
+            names.addAll(otherNames);
+            durations.addElements(durations.size(), otherDurations);
+        }
+    }
+
+    public synchronized @Nullable String toHeaderValue() {
+        if (names.isEmpty())
+            return null;
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < names.size(); i++) {
+            if (i != 0)
+                sb.append(", ");
+            sb.append(names.get(i)).append(";dur=").append(durations.getLong(i) / 1000000.0);
+        }
+        return sb.toString();
+    }
+
+    public interface Phase extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
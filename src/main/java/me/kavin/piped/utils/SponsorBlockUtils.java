@@ -5,6 +5,8 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.NullNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.TextNode;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
 import me.kavin.piped.consts.Constants;
 import me.kavin.piped.utils.resp.InvalidRequestResponse;
 import me.kavin.piped.utils.resp.SimpleErrorMessage;
@@ -13,50 +15,87 @@ import org.apache.commons.lang3.StringUtils;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
 
 import static me.kavin.piped.consts.Constants.SPONSORBLOCK_SERVERS;
 import static me.kavin.piped.consts.Constants.mapper;
 
 public class SponsorBlockUtils {
 
+    /**
+     * A response to a hash prefix query holds the segments of every video whose hash shares the prefix, so the whole
+     * bucket is kept, and serves later requests for any of those videos.
+     */
+    private record SegmentsBucket(String prefix, String categories, String actionType) {
+    }
+
+    // the serialized segments of each video in the bucket, by lowercase video id
+    private static final LoadingCache<SegmentsBucket, Map<String, String>> segmentsCache = Caffeine.newBuilder()
+            .maximumSize(Constants.SPONSORBLOCK_CACHE_SIZE)
+            .expireAfterWrite(Constants.SPONSORBLOCK_CACHE_TTL, TimeUnit.SECONDS)
+            .build(SponsorBlockUtils::fetchSegmentsBucket);
+
     public static String getSponsors(String id, String categories, String actionType)
             throws IOException {
 
         if (StringUtils.isEmpty(categories))
             return mapper.writeValueAsString(new InvalidRequestResponse());
 
-        String hash = DigestUtils.sha256Hex(id);
+        String prefix = DigestUtils.sha256Hex(id).substring(0, 4);
+
+        var key = new SegmentsBucket(prefix, categories, StringUtils.defaultIfBlank(actionType, ""));
+
+        var bucket = segmentsCache.getIfPresent(key);
+        if (bucket != null)
+            ConcurrencyLimiter.markCacheHit();
+        else
+            bucket = segmentsCache.get(key);
+
+        if (bucket == null) {
+            ExceptionHandler.throwErrorResponse(new SimpleErrorMessage("All SponsorBlock servers are down"));
+            return null;
+        }
+
+        return bucket.getOrDefault(id.toLowerCase(), "{}");
+    }
+
+    /**
+     * @return the bucket, or null if no server could be reached, so that the failure isn't cached
+     */
+    private static Map<String, String> fetchSegmentsBucket(SegmentsBucket bucket) {
 
         for (String apiUrl : Constants.SPONSORBLOCK_SERVERS) {
             try {
-                String url = apiUrl + "/api/skipSegments/" + URLUtils.silentEncode(hash.substring(0, 4))
+                String url = apiUrl + "/api/skipSegments/" + URLUtils.silentEncode(bucket.prefix())
 
-                        + "?categories=" + URLUtils.silentEncode(categories);
-                if (actionType != null && !actionType.isBlank())
-                    url += "&actionTypes=" + URLUtils.silentEncode(actionType);
+                        + "?categories=" + URLUtils.silentEncode(bucket.categories());
+                if (!bucket.actionType().isEmpty())
+                    url += "&actionTypes=" + URLUtils.silentEncode(bucket.actionType());
 
                 var resp = RequestUtils.sendGetRaw(url).get();
 
                 if (resp.status() == 200) {
                     var any = mapper.readTree(resp.body());
 
-                    for (var element : any) {
-                        if (element.get("videoID").asText().equalsIgnoreCase(id)) {
-                            return mapper.writeValueAsString(element);
-                        }
-                    }
+                    Map<String, String> segments = new HashMap<>();
+                    for (var element : any)
+                        segments.put(element.get("videoID").asText().toLowerCase(), mapper.writeValueAsString(element));
 
-                    return "{}";
+                    return segments;
                 }
+
+                // no video in the bucket has segments
+                if (resp.status() == 404)
+                    return Map.of();
             } catch (Exception ignored) {
             }
         }
 
-        ExceptionHandler.throwErrorResponse(new SimpleErrorMessage("All SponsorBlock servers are down"));
-
         return null;
     }
 
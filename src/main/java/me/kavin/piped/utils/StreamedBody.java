@@ -0,0 +1,266 @@
+package me.kavin.piped.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A response body that is written by one thread while the HTTP server reads it, from whichever thread each of its
+ * read tasks happens to run on. Unlike a piped stream, neither side is tied to a thread.
+ * <p>
+ * Written bytes are handed over in chunks of {@link #CHUNK_SIZE}, and at most {@link #MAX_CHUNKS} of them wait at once,
+ * so a slow client holds the writer back instead of the body piling up in memory.
+ * <p>
+ * A gzipped body is compressed by the writer, a chunk at a time, so compression needs no thread of its own.
+ * <p>
+ * The writer must end the body with either {@link OutputStream#close()} or {@link #fail(Exception)}. A failed body makes
+ * the reader fail too, so the client sees a broken response rather than a truncated one that looks complete.
+ */
+public class StreamedBody {
+
+    public static final int CHUNK_SIZE = 16 * 1024;
+    public static final int MAX_CHUNKS = 4;
+
+    // how long the writer waits for a client that stopped reading
+    private static final long STALL_TIMEOUT = TimeUnit.SECONDS.toNanos(60);
+
+    private static final byte[] END = new byte[0];
+
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(MAX_CHUNKS);
+
+    private volatile boolean cancelled;
+    private volatile Exception failure;
+
+    private volatile boolean claimed;
+    private final AtomicBoolean done = new AtomicBoolean();
+    private volatile Runnable onDone;
+
+    private final boolean gzip;
+
+    private final Output output;
+    private final Input input = new Input();
+
+    public StreamedBody() {
+        this(false);
+    }
+
+    public StreamedBody(boolean gzip) {
+        this.gzip = gzip;
+        this.output = new Output();
+    }
+
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    /**
+     * Hands the body to its writer, this must happen on the thread that starts the writer.
+     */
+    public OutputStream getOutputStream() {
+        claimed = true;
+        return output;
+    }
+
+    public InputStream getInputStream() {
+        return input;
+    }
+
+    /**
+     * Ends the body with an error, instead of {@link OutputStream#close()}.
+     */
+    public void fail(Exception e) {
+        failure = e;
+        output.end();
+    }
+
+    /**
+     * Runs the action once the body has ended, or has been discarded.
+     */
+    public void whenDone(Runnable action) {
+        onDone = action;
+    }
+
+    /**
+     * Ends a body that was never handed to a writer, as when the response turned out not to need one.
+     */
+    public void discardIfUnused() {
+        if (!claimed)
+            done();
+    }
+
+    private void done() {
+        if (done.compareAndSet(false, true) && onDone != null)
+            onDone.run();
+    }
+
+    private void put(byte[] chunk) throws IOException {
+        long deadline = System.nanoTime() + STALL_TIMEOUT;
+        try {
+            while (!chunks.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                if (cancelled)
+                    throw new IOException("The response body was cancelled");
+                if (System.nanoTime() - deadline > 0)
+                    throw new IOException("The client stopped reading the response body");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private class Output extends OutputStream {
+
+        private byte[] buffer = new byte[CHUNK_SIZE];
+        private int count;
+        private boolean ended;
+
+        // compresses into memory, as GZIPOutputStream is synchronized and must not block a virtual thread's carrier
+        private final ByteArrayOutputStream compressed;
+        private final GZIPOutputStream deflater;
+
+        private Output() {
+            if (gzip) {
+                compressed = new ByteArrayOutputStream(CHUNK_SIZE * 2);
+                try {
+                    deflater = new GZIPOutputStream(compressed, CHUNK_SIZE);
+                } catch (IOException e) {
+                    // not possible with an in-memory stream
+                    throw new UncheckedIOException(e);
+                }
+            } else {
+                compressed = null;
+                deflater = null;
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (ended)
+                throw new IOException("The response body has already ended");
+            if (count == buffer.length)
+                handOver();
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (ended)
+                throw new IOException("The response body has already ended");
+
+            while (len > 0) {
+                if (count == buffer.length)
+                    handOver();
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * Does nothing, chunks are only handed over once full, so that the reader gets few large ones.
+         */
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (ended)
+                return;
+            if (count > 0)
+                handOver();
+            if (deflater != null) {
+                deflater.finish();
+                put(compressed.toByteArray());
+            }
+            end();
+        }
+
+        private void handOver() throws IOException {
+            if (cancelled)
+                throw new IOException("The response body was cancelled");
+
+            if (deflater == null) {
+                put(count == buffer.length ? buffer : Arrays.copyOf(buffer, count));
+                buffer = new byte[CHUNK_SIZE];
+            } else {
+                deflater.write(buffer, 0, count);
+                if (compressed.size() >= CHUNK_SIZE) {
+                    put(compressed.toByteArray());
+                    compressed.reset();
+                }
+            }
+
+            count = 0;
+        }
+
+        private void end() {
+            if (ended)
+                return;
+            ended = true;
+            // first, so that everything the writer held is released by the time the client has the whole body
+            done();
+            try {
+                put(END);
+            } catch (IOException ignored) {
+                // the reader is gone, so nobody waits for the end
+            }
+        }
+    }
+
+    private class Input extends InputStream {
+
+        private byte[] chunk;
+        private int position;
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+
+            if (chunk == null || (chunk != END && position == chunk.length)) {
+                try {
+                    chunk = chunks.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+                position = 0;
+            }
+
+            if (chunk == END) {
+                if (failure != null)
+                    throw new IOException("The response body could not be written", failure);
+                return -1;
+            }
+
+            int n = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            cancelled = true;
+            chunks.clear();
+        }
+    }
+}
@@ -1,23 +1,34 @@
 package me.kavin.piped.utils;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import me.kavin.piped.consts.Constants;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.lang3.StringUtils;
+import org.bouncycastle.crypto.digests.Blake3Digest;
 import org.schabi.newpipe.extractor.Image;
 
 import java.net.MalformedURLException;
-import java.net.URL;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.*;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 import static me.kavin.piped.consts.Constants.PROXY_HASH_SECRET;
 
 public class URLUtils {
 
+    /**
+     * Rewritten image URLs, the same thumbnails and avatars show up over and over across feeds, trending, search and
+     * channel pages. Video URLs aren't cached, as they expire and are rarely requested twice.
+     */
+    private static final Cache<String, String> imageURLCache = Caffeine.newBuilder()
+            .maximumSize(50_000)
+            .build();
+
     public static String silentEncode(String s) {
         try {
             return URLEncoder.encode(s, StandardCharsets.UTF_8);
@@ -41,7 +52,9 @@ public class URLUtils {
     }
 
     public static String rewriteURL(final String old) {
-        return rewriteURL(old, Constants.IMAGE_PROXY_PART, Map.of());
+        if (StringUtils.isEmpty(old)) return null;
+
+        return imageURLCache.get(old, url -> rewriteURL(url, Constants.IMAGE_PROXY_PART, Map.of()));
     }
 
     public static String getLastThumbnail(final List<Image> thumbnails) {
@@ -56,102 +69,177 @@ public class URLUtils {
 
         if (StringUtils.isEmpty(old)) return null;
 
-        URL url = null;
-        try {
-            url = new URL(old);
-        } catch (MalformedURLException e) {
-            ExceptionHandler.handle(e);
+        // parse the URL by hand, java.net.URL does far more work than needed for the host, path and query
+        final int schemeEnd = old.indexOf("://");
+        if (schemeEnd < 0) {
+            ExceptionHandler.handle(new MalformedURLException("no protocol: " + old));
+            return null;
         }
-        assert url != null;
 
-        final String host = url.getHost();
+        final int length = old.length();
+        final int authorityStart = schemeEnd + 3;
+        int authorityEnd = authorityStart;
+        while (authorityEnd < length) {
+            char c = old.charAt(authorityEnd);
+            if (c == '/' || c == '?' || c == '#')
+                break;
+            authorityEnd++;
+        }
 
-        String query = url.getQuery();
+        final String host = parseHost(old, authorityStart, authorityEnd);
 
-        boolean hasQuery = query != null;
+        final int fragmentStart = old.indexOf('#', authorityEnd);
+        final int end = fragmentStart < 0 ? length : fragmentStart;
+        int queryStart = old.indexOf('?', authorityEnd);
+        if (queryStart >= end)
+            queryStart = -1;
 
-        Comparator<List<String>> listComparator = (o1, o2) -> {
-            for (int i = 0; i < Math.min(o1.size(), o2.size()); i++) {
-                int result = o1.get(i).compareTo(o2.get(i));
-                if (result != 0) {
-                    return result;
-                }
-            }
-            return Integer.compare(o1.size(), o2.size()); // compare list sizes if all elements are equal
-        };
+        String path = old.substring(authorityEnd, queryStart < 0 ? end : queryStart);
 
-        Set<List<String>> queryPairs = new TreeSet<>(listComparator);
+        final List<QueryPair> queryPairs = new ObjectArrayList<>(16);
 
-        if (hasQuery) {
-            String[] pairs = query.split("&");
+        boolean hasHost = false;
+        if (queryStart >= 0) {
+            int pairStart = queryStart + 1;
+            while (pairStart < end) {
+                int pairEnd = old.indexOf('&', pairStart);
+                if (pairEnd < 0 || pairEnd > end)
+                    pairEnd = end;
 
-            for (String pair : pairs) {
-                int idx = pair.indexOf("=");
-                queryPairs.add(List.of(
-                        silentDecode(pair.substring(0, idx)),
-                        silentDecode(pair.substring(idx + 1))
-                ));
-            }
-        }
+                if (pairEnd > pairStart) {
+                    int idx = old.indexOf('=', pairStart);
+                    if (idx < 0 || idx > pairEnd)
+                        idx = pairEnd;
 
-        // look for host param, and add it if it doesn't exist
-        boolean hasHost = false;
-        for (List<String> pair : queryPairs) {
-            if (pair.get(0).equals("host")) {
-                hasHost = true;
-                break;
+                    String key = decode(old, pairStart, idx);
+                    String value = idx < pairEnd ? decode(old, idx + 1, pairEnd) : "";
+
+                    if (key.equals("host"))
+                        hasHost = true;
+
+                    queryPairs.add(new QueryPair(key, value));
+                }
+
+                pairStart = pairEnd + 1;
             }
         }
+
+        // add the host param if it doesn't exist
         if (!hasHost) {
-            queryPairs.add(List.of("host", host));
+            queryPairs.add(new QueryPair("host", host));
         }
 
         for (var entry : extraParams.entrySet()) {
-            queryPairs.add(List.of(entry.getKey(), entry.getValue()));
+            queryPairs.add(new QueryPair(entry.getKey(), entry.getValue()));
         }
 
-        String path = url.getPath();
+        // sort and deduplicate, the proxy expects the parameters in this order to verify the hash
+        queryPairs.sort(null);
+        int size = 0;
+        for (int i = 0; i < queryPairs.size(); i++) {
+            QueryPair pair = queryPairs.get(i);
+            if (size == 0 || !queryPairs.get(size - 1).equals(pair))
+                queryPairs.set(size++, pair);
+        }
+        queryPairs.subList(size, queryPairs.size()).clear();
 
         if (path.contains("=")) {
             path = StringUtils.substringBefore(path, "=") + "=" + StringUtils.substringAfter(path, "=").replace("-rj", "-rw");
         }
 
-        if (PROXY_HASH_SECRET != null)
-            try {
-                MessageDigest md = MessageDigest.getInstance("BLAKE3-256");
-                for (List<String> pair : queryPairs) {
-                    md.update(pair.get(0).getBytes(StandardCharsets.UTF_8));
-                    md.update(pair.get(1).getBytes(StandardCharsets.UTF_8));
-                }
+        if (PROXY_HASH_SECRET != null) {
+            // the lightweight digest avoids a provider lookup per call, and is cheap enough to create every time
+            Blake3Digest digest = new Blake3Digest(256);
+            for (QueryPair pair : queryPairs) {
+                update(digest, pair.key());
+                update(digest, pair.value());
+            }
 
-                md.update(path.getBytes(StandardCharsets.UTF_8));
+            update(digest, path);
 
-                md.update(PROXY_HASH_SECRET);
+            digest.update(PROXY_HASH_SECRET, 0, PROXY_HASH_SECRET.length);
 
-                queryPairs.add(List.of("qhash", Hex.encodeHexString(md.digest()).substring(0, 8)));
-            } catch (NoSuchAlgorithmException e) {
-                e.printStackTrace();
-            }
+            byte[] hash = new byte[digest.getDigestSize()];
+            digest.doFinal(hash, 0);
 
-        String newUrl = proxy + path;
+            QueryPair qhash = new QueryPair("qhash", new String(Hex.encodeHex(hash, 0, 4, true)));
+            int idx = Collections.binarySearch(queryPairs, qhash);
+            if (idx < 0)
+                queryPairs.add(-idx - 1, qhash);
+        }
 
-        StringBuilder qstring = null;
+        StringBuilder newUrl = new StringBuilder(proxy.length() + path.length() + queryPairs.size() * 32);
+        newUrl.append(proxy).append(path).append('?');
 
-        for (List<String> pair : queryPairs) {
-            if (qstring == null) {
-                qstring = new StringBuilder();
-            } else {
-                qstring.append("&");
-            }
+        for (int i = 0; i < queryPairs.size(); i++) {
+            QueryPair pair = queryPairs.get(i);
+            if (i > 0)
+                newUrl.append('&');
 
-            qstring.append(silentEncode(pair.get(0)));
-            qstring.append("=");
-            qstring.append(silentEncode(pair.get(1)));
+            appendEncoded(newUrl, pair.key());
+            newUrl.append('=');
+            appendEncoded(newUrl, pair.value());
         }
 
-        newUrl += "?" + qstring;
+        return newUrl.toString();
+
+    }
+
+    private static String parseHost(String url, int start, int end) {
+        int userInfoEnd = url.lastIndexOf('@', end - 1);
+        if (userInfoEnd >= start)
+            start = userInfoEnd + 1;
 
-        return newUrl;
+        if (start < end && url.charAt(start) == '[') {
+            int ipv6End = url.indexOf(']', start);
+            if (ipv6End >= 0 && ipv6End < end)
+                return url.substring(start, ipv6End + 1);
+        }
 
+        int portStart = url.indexOf(':', start);
+        if (portStart >= 0 && portStart < end)
+            end = portStart;
+
+        return url.substring(start, end);
+    }
+
+    private static String decode(String s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '%' || c == '+')
+                return silentDecode(s.substring(start, end));
+        }
+        return s.substring(start, end);
+    }
+
+    private static void appendEncoded(StringBuilder sb, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (needsEncoding(s.charAt(i))) {
+                sb.append(silentEncode(s));
+                return;
+            }
+        }
+        sb.append(s);
+    }
+
+    /**
+     * Mirrors the characters {@link URLEncoder} leaves untouched.
+     */
+    private static boolean needsEncoding(char c) {
+        return !((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '_' || c == '.' || c == '*');
+    }
+
+    private static void update(Blake3Digest digest, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        digest.update(bytes, 0, bytes.length);
+    }
+
+    private record QueryPair(String key, String value) implements Comparable<QueryPair> {
+        @Override
+        public int compareTo(QueryPair o) {
+            int result = key.compareTo(o.key);
+            return result != 0 ? result : value.compareTo(o.value);
+        }
     }
 }
@@ -45,18 +45,11 @@ public class VideoHelpers {
 
             info.setShortFormContent(isShort(info.getId()));
 
-            try (StatelessSession s = DatabaseSessionFactory.createStatelessSession()) {
-                if (!DatabaseHelper.doesVideoExist(s, info.getId())) {
+            // updates the video if it exists already, keeping the stored values where this one has none
+            Video video = new Video(info.getId(), info.getName(), info.getViewCount(), info.getDuration(),
+                    Math.max(infoTime, time), info.getThumbnails().getLast().getUrl(), info.isShortFormContent(), channel);
 
-                    Video video = new Video(info.getId(), info.getName(), info.getViewCount(), info.getDuration(),
-                            Math.max(infoTime, time), info.getThumbnails().getLast().getUrl(), info.isShortFormContent(), channel);
-
-                    insertVideo(video);
-                    return;
-                }
-            }
-
-            updateVideo(info.getId(), info, time);
+            VideoIngestWriter.submit(video, true);
 
         }
     }
@@ -74,18 +67,13 @@ public class VideoHelpers {
         if (channel != null
                 && (System.currentTimeMillis() - infoTime) < TimeUnit.DAYS.toMillis(Constants.FEED_RETENTION)) {
 
-            try (StatelessSession s = DatabaseSessionFactory.createStatelessSession()) {
-                if (!DatabaseHelper.doesVideoExist(s, extractor.getId())) {
+            boolean isShort = extractor.isShortFormContent() || isShort(extractor.getId());
 
-                    boolean isShort = extractor.isShortFormContent() || isShort(extractor.getId());
+            // a video that exists already is left as it is
+            Video video = new Video(extractor.getId(), extractor.getName(), extractor.getViewCount(), extractor.getLength(),
+                    Math.max(infoTime, time), extractor.getThumbnails().getLast().getUrl(), isShort, channel);
 
-                    Video video = new Video(extractor.getId(), extractor.getName(), extractor.getViewCount(), extractor.getLength(),
-                            Math.max(infoTime, time), extractor.getThumbnails().getLast().getUrl(), isShort, channel);
-
-                    insertVideo(video);
-
-                }
-            }
+            VideoIngestWriter.submit(video, false);
         }
 
     }
@@ -119,7 +107,7 @@ public class VideoHelpers {
     }
 
     public static void updateVideo(String id, StreamInfoItem item) {
-        updateVideo(id, item.getViewCount(), item.getDuration(), item.getName());
+        VideoIngestWriter.submitUpdate(id, item.getViewCount(), item.getDuration(), item.getName());
     }
 
     public static boolean updateVideo(String id, long views, long duration, String title) {
@@ -158,20 +146,23 @@ public class VideoHelpers {
         }
     }
 
-    public static void insertVideo(Video video) {
+    /**
+     * @param update whether a stored copy of the video is updated with the known values of this one
+     */
+    public static void insertVideo(Video video, boolean update) {
         try (StatelessSession s = DatabaseSessionFactory.createStatelessSession()) {
             var tr = s.beginTransaction();
             try {
                 s.createNativeMutationQuery(
                                 "INSERT INTO videos (uploader_id,duration,is_short,thumbnail,title,uploaded,views,id) values " +
-                                        "(:uploader_id,:duration,:is_short,:thumbnail,:title,:uploaded,:views,:id) ON CONFLICT (id) DO UPDATE SET " +
-                                        "duration = excluded.duration, title = excluded.title, views = excluded.views"
+                                        "(:uploader_id,:duration,:is_short,:thumbnail,:title,:uploaded,:views,:id)" +
+                                        (update ? VideoIngestWriter.ON_CONFLICT_UPDATE : VideoIngestWriter.ON_CONFLICT_SKIP)
                         )
                         .setParameter("uploader_id", video.getChannel().getUploaderId())
                         .setParameter("duration", video.getDuration())
                         .setParameter("is_short", video.isShort())
                         .setParameter("thumbnail", video.getThumbnail())
-                        .setParameter("title", video.getTitle())
+                        .setParameter("title", video.getTitle(), String.class)
                         .setParameter("uploaded", video.getUploaded())
                         .setParameter("views", video.getViews())
                         .setParameter("id", video.getId())
@@ -0,0 +1,290 @@
+package me.kavin.piped.utils;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import me.kavin.piped.consts.Constants;
+import me.kavin.piped.utils.obj.db.Video;
+import org.hibernate.StatelessSession;
+import org.hibernate.query.MutationQuery;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Write-behind pipeline for videos. New videos are buffered and inserted as multi-row statements, and so are the view
+ * counts, durations and titles refreshed from channel pages, instead of a transaction per video, which matters during
+ * upload spikes and channel refreshes.
+ */
+public class VideoIngestWriter {
+
+    private static final int QUEUE_CAPACITY = 10_000;
+
+    /**
+     * Keeps the stored values of a video where the new ones are unknown, as the extractor reports -1 views and
+     * duration, or no title, for live streams, premieres and some feed items.
+     */
+    static final String ON_CONFLICT_UPDATE = " ON CONFLICT (id) DO UPDATE SET " +
+            "duration = CASE WHEN excluded.duration > 0 THEN excluded.duration ELSE videos.duration END, " +
+            "title = COALESCE(excluded.title, videos.title), " +
+            "views = CASE WHEN excluded.views > 0 THEN excluded.views ELSE videos.views END";
+
+    static final String ON_CONFLICT_SKIP = " ON CONFLICT (id) DO NOTHING";
+
+    private static final BlockingQueue<NewVideo> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static final BlockingQueue<VideoUpdate> updateQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    private static final AtomicLong submitted = new AtomicLong();
+    private static final AtomicLong written = new AtomicLong();
+    private static final AtomicLong batches = new AtomicLong();
+    private static final AtomicLong failedBatches = new AtomicLong();
+    private static final AtomicLong direct = new AtomicLong();
+    private static final AtomicLong updated = new AtomicLong();
+
+    static {
+        Thread.ofVirtual().name("Video-Ingest-Writer").start(() -> run(queue, VideoIngestWriter::flush));
+        Thread.ofVirtual().name("Video-Update-Writer").start(() -> run(updateQueue, VideoIngestWriter::flushUpdates));
+    }
+
+    /**
+     * Queues a video to be written with the next batch. If the queue stays full, the video is written directly,
+     * which slows the caller down to the rate the database keeps up with.
+     *
+     * @param update whether a stored copy of the video is updated with the known values of this one, otherwise it's
+     *               left as it is
+     */
+    public static void submit(Video video, boolean update) {
+        submitted.incrementAndGet();
+
+        try {
+            if (queue.offer(new NewVideo(video, update), 1, TimeUnit.SECONDS))
+                return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        direct.incrementAndGet();
+        VideoHelpers.insertVideo(video, update);
+    }
+
+    /**
+     * Queues an update of a stored video, which is skipped if the video isn't stored. Values that are unknown, a
+     * non-positive count or a null title, are left as they are, like {@link VideoHelpers#updateVideo(String, long, long, String)}
+     * does.
+     */
+    public static void submitUpdate(String id, long views, long duration, String title) {
+        try {
+            if (updateQueue.offer(new VideoUpdate(id, views, duration, title), 1, TimeUnit.SECONDS))
+                return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        VideoHelpers.updateVideo(id, views, duration, title);
+    }
+
+    private static <T> void run(BlockingQueue<T> queue, Consumer<List<T>> flush) {
+        final List<T> batch = new ObjectArrayList<>(Constants.INGEST_BATCH_SIZE);
+
+        while (true) {
+            try {
+                batch.add(queue.take());
+
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Constants.INGEST_FLUSH_INTERVAL);
+
+                while (batch.size() < Constants.INGEST_BATCH_SIZE) {
+                    if (queue.drainTo(batch, Constants.INGEST_BATCH_SIZE - batch.size()) > 0)
+                        continue;
+
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0)
+                        break;
+
+                    T item = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (item == null)
+                        break;
+
+                    batch.add(item);
+                }
+
+                flush.accept(batch);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                ExceptionHandler.handle(e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private static void flush(List<NewVideo> batch) {
+
+        // postgres rejects an ON CONFLICT statement that touches the same row twice, the latest submission wins
+        Map<String, Video> updates = new Object2ObjectLinkedOpenHashMap<>(batch.size());
+        Map<String, Video> inserts = new Object2ObjectLinkedOpenHashMap<>(batch.size());
+        for (NewVideo newVideo : batch) {
+            Video video = newVideo.video();
+            if (newVideo.update()) {
+                inserts.remove(video.getId());
+                updates.put(video.getId(), video);
+            } else if (!updates.containsKey(video.getId())) {
+                inserts.put(video.getId(), video);
+            }
+        }
+
+        try (StatelessSession s = DatabaseSessionFactory.createStatelessSession()) {
+            var tr = s.beginTransaction();
+            try {
+                if (!updates.isEmpty())
+                    insertQuery(s, updates.values(), ON_CONFLICT_UPDATE).executeUpdate();
+                if (!inserts.isEmpty())
+                    insertQuery(s, inserts.values(), ON_CONFLICT_SKIP).executeUpdate();
+                tr.commit();
+
+                batches.incrementAndGet();
+                written.addAndGet(updates.size() + inserts.size());
+                return;
+            } catch (Exception e) {
+                tr.rollback();
+            }
+        }
+
+        // a single bad row (eg. a channel that was deleted in the meantime) fails the whole batch,
+        // so retry row by row to get the rest in and to report the actual failure
+        failedBatches.incrementAndGet();
+        for (Video video : updates.values())
+            VideoHelpers.insertVideo(video, true);
+        for (Video video : inserts.values())
+            VideoHelpers.insertVideo(video, false);
+    }
+
+    private static MutationQuery insertQuery(StatelessSession s, Collection<Video> videos, String onConflict) {
+        StringBuilder sql = new StringBuilder("INSERT INTO videos (uploader_id,duration,is_short,thumbnail,title,uploaded,views,id) values ");
+        for (int i = 0; i < videos.size(); i++) {
+            if (i > 0)
+                sql.append(',');
+            sql.append("(:uploader_id").append(i)
+                    .append(",:duration").append(i)
+                    .append(",:is_short").append(i)
+                    .append(",:thumbnail").append(i)
+                    .append(",:title").append(i)
+                    .append(",:uploaded").append(i)
+                    .append(",:views").append(i)
+                    .append(",:id").append(i)
+                    .append(')');
+        }
+        sql.append(onConflict);
+
+        var query = s.createNativeMutationQuery(sql.toString());
+
+        int i = 0;
+        for (Video video : videos) {
+            query.setParameter("uploader_id" + i, video.getChannel().getUploaderId())
+                    .setParameter("duration" + i, video.getDuration())
+                    .setParameter("is_short" + i, video.isShort())
+                    .setParameter("thumbnail" + i, video.getThumbnail())
+                    .setParameter("title" + i, video.getTitle(), String.class)
+                    .setParameter("uploaded" + i, video.getUploaded())
+                    .setParameter("views" + i, video.getViews())
+                    .setParameter("id" + i, video.getId());
+            i++;
+        }
+
+        return query;
+    }
+
+    private static void flushUpdates(List<VideoUpdate> batch) {
+
+        // the latest update of a video wins, as an UPDATE ... FROM only applies one of them
+        Map<String, VideoUpdate> updates = new Object2ObjectLinkedOpenHashMap<>(batch.size());
+        for (VideoUpdate update : batch)
+            updates.put(update.id(), update);
+
+        StringBuilder sql = new StringBuilder("UPDATE videos SET " +
+                "duration = CASE WHEN v.duration > 0 THEN v.duration ELSE videos.duration END, " +
+                "title = COALESCE(v.title, videos.title), " +
+                "views = CASE WHEN v.views > 0 THEN v.views ELSE videos.views END " +
+                "FROM (VALUES ");
+        for (int i = 0; i < updates.size(); i++) {
+            if (i > 0)
+                sql.append(',');
+            sql.append("(:id").append(i)
+                    .append(",CAST(:views").append(i).append(" AS bigint)")
+                    .append(",CAST(:duration").append(i).append(" AS bigint)")
+                    .append(",CAST(:title").append(i).append(" AS varchar)")
+                    .append(')');
+        }
+        sql.append(") AS v (id, views, duration, title) WHERE videos.id = v.id");
+
+        try (StatelessSession s = DatabaseSessionFactory.createStatelessSession()) {
+            var tr = s.beginTransaction();
+            try {
+                var query = s.createNativeMutationQuery(sql.toString());
+
+                int i = 0;
+                for (VideoUpdate update : updates.values()) {
+                    query.setParameter("id" + i, update.id())
+                            .setParameter("views" + i, update.views())
+                            .setParameter("duration" + i, update.duration())
+                            .setParameter("title" + i, update.title(), String.class);
+                    i++;
+                }
+
+                query.executeUpdate();
+                tr.commit();
+
+                updated.addAndGet(updates.size());
+                return;
+            } catch (Exception e) {
+                tr.rollback();
+            }
+        }
+
+        for (VideoUpdate update : updates.values())
+            VideoHelpers.updateVideo(update.id(), update.views(), update.duration(), update.title());
+    }
+
+    private record NewVideo(Video video, boolean update) {
+    }
+
+    private record VideoUpdate(String id, long views, long duration, String title) {
+    }
+
+    public static int getQueueSize() {
+        return queue.size();
+    }
+
+    public static long getSubmitted() {
+        return submitted.get();
+    }
+
+    public static long getWritten() {
+        return written.get();
+    }
+
+    public static long getBatches() {
+        return batches.get();
+    }
+
+    public static long getFailedBatches() {
+        return failedBatches.get();
+    }
+
+    public static long getDirect() {
+        return direct.get();
+    }
+
+    public static int getUpdateQueueSize() {
+        return updateQueue.size();
+    }
+
+    public static long getUpdated() {
+        return updated.get();
+    }
+}
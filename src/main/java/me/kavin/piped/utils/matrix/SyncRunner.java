@@ -186,14 +186,14 @@ public class SyncRunner implements Runnable {
                                 case "video.piped.channel.info" -> {
                                     FederatedChannelInfo info = mapper.treeToValue(content, FederatedChannelInfo.class);
                                     Multithreading.runAsync(() -> {
-                                        try (StatelessSession s = DatabaseSessionFactory.createStatelessSession()) {
-                                            var channel = DatabaseHelper.getChannelFromId(s, info.getId());
-                                            if (channel != null)
+                                        var channel = DatabaseHelper.getChannelFromId(info.getId());
+                                        if (channel != null)
+                                            try (StatelessSession s = DatabaseSessionFactory.createStatelessSession()) {
                                                 ChannelHelpers.updateChannel(s, channel,
                                                         info.getName(),
                                                         info.getUploaderUrl(),
                                                         info.isVerified());
-                                        }
+                                            }
                                     });
                                 }
                                 default -> System.err.println("Unknown event type: " + type);
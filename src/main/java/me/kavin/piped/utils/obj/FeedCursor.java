@@ -0,0 +1,24 @@
+package me.kavin.piped.utils.obj;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Position of the last video on a feed page, serialized as {@code <uploaded>_<id>}.
+ * Video ids may contain underscores themselves, so only the first one is a separator.
+ */
+public record FeedCursor(long uploaded, String id) {
+
+    public static FeedCursor parse(String cursor) {
+        String id = StringUtils.substringAfter(cursor, '_');
+
+        if (id.isEmpty())
+            throw new IllegalArgumentException("Invalid feed cursor: " + cursor);
+
+        return new FeedCursor(Long.parseLong(StringUtils.substringBefore(cursor, '_')), id);
+    }
+
+    @Override
+    public String toString() {
+        return uploaded + "_" + id;
+    }
+}
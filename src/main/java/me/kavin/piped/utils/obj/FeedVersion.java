@@ -0,0 +1,10 @@
+package me.kavin.piped.utils.obj;
+
+/**
+ * Cheap summary of a feed's contents, which changes whenever a video is added to or removed from the feed.
+ *
+ * @param latest upload time of the newest video, or 0 for an empty feed
+ * @param count  number of videos in the feed
+ */
+public record FeedVersion(long latest, long count) {
+}
@@ -5,7 +5,8 @@ import jakarta.persistence.*;
 @Entity
 @Table(name = "videos", indexes = {@Index(columnList = "id", name = "videos_id_idx"),
         @Index(columnList = "uploader_id", name = "video_uploader_id_idx"),
-        @Index(columnList = "uploaded", name = "video_uploaded_idx")})
+        @Index(columnList = "uploaded", name = "video_uploaded_idx"),
+        @Index(columnList = "uploader_id, uploaded DESC, id DESC", name = "video_uploader_id_uploaded_id_idx")})
 public class Video {
 
     @Id
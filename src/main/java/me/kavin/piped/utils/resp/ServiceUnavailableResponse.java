@@ -0,0 +1,13 @@
+package me.kavin.piped.utils.resp;
+
+import me.kavin.piped.utils.IStatusCode;
+
+public class ServiceUnavailableResponse implements IStatusCode {
+
+    public String error = "This instance is overloaded, please try again later.";
+
+    @Override
+    public int getStatusCode() {
+        return 503;
+    }
+}
@@ -0,0 +1,13 @@
+package me.kavin.piped.utils.resp;
+
+import me.kavin.piped.utils.IStatusCode;
+
+public class TooManyRequestsResponse implements IStatusCode {
+
+    public String error = "Too many requests, please try again later.";
+
+    @Override
+    public int getStatusCode() {
+        return 429;
+    }
+}
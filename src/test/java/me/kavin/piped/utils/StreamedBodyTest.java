@@ -0,0 +1,141 @@
+package me.kavin.piped.utils;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.activej.bytebuf.ByteBuf;
+import io.activej.csp.ChannelSupplier;
+import io.activej.eventloop.Eventloop;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamedBodyTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private static final int VIDEOS = 20_000;
+
+    @Test
+    void readsFeedLargerThanTheBuffer() throws Exception {
+        StreamedBody body = new StreamedBody();
+        writeFeed(body);
+
+        byte[] bytes = readAll(body);
+
+        assertTrue(bytes.length > StreamedBody.CHUNK_SIZE * StreamedBody.MAX_CHUNKS);
+        assertEquals(VIDEOS, mapper.readTree(bytes).size());
+    }
+
+    @Test
+    void readsGzippedFeedLargerThanTheBuffer() throws Exception {
+        StreamedBody body = new StreamedBody(true);
+        writeFeed(body);
+
+        byte[] bytes;
+        try (var in = new GZIPInputStream(new ByteArrayInputStream(readAll(body)))) {
+            bytes = in.readAllBytes();
+        }
+
+        assertTrue(bytes.length > StreamedBody.CHUNK_SIZE * StreamedBody.MAX_CHUNKS);
+        assertEquals(VIDEOS, mapper.readTree(bytes).size());
+    }
+
+    @Test
+    void failedBodyFailsTheReader() {
+        StreamedBody body = new StreamedBody();
+
+        Thread.ofVirtual().start(() -> {
+            try {
+                OutputStream out = body.getOutputStream();
+                out.write(new byte[StreamedBody.CHUNK_SIZE * 3]);
+                body.fail(new IOException("query failed"));
+            } catch (IOException e) {
+                body.fail(e);
+            }
+        });
+
+        assertThrows(ExecutionException.class, () -> readAll(body));
+    }
+
+    @Test
+    void isDoneOnceTheWriterEnds() throws Exception {
+        StreamedBody body = new StreamedBody();
+        AtomicInteger done = new AtomicInteger();
+        body.whenDone(done::incrementAndGet);
+
+        writeFeed(body);
+        body.discardIfUnused();
+        assertEquals(0, done.get());
+
+        readAll(body);
+        assertEquals(1, done.get());
+    }
+
+    @Test
+    void unusedBodyIsDoneWhenDiscarded() {
+        StreamedBody body = new StreamedBody();
+        AtomicInteger done = new AtomicInteger();
+        body.whenDone(done::incrementAndGet);
+
+        body.discardIfUnused();
+        body.discardIfUnused();
+        assertEquals(1, done.get());
+    }
+
+    /**
+     * Claims the body on the calling thread, like the feed handlers do.
+     */
+    private static void writeFeed(StreamedBody body) {
+        OutputStream out = body.getOutputStream();
+        Thread.ofVirtual().start(() -> {
+            try {
+                JsonGenerator generator = mapper.createGenerator(out);
+                generator.writeStartArray();
+                for (int i = 0; i < VIDEOS; i++)
+                    mapper.writeValue(generator, Map.of("url", "/watch?v=" + i, "title", "Video " + i));
+                generator.writeEndArray();
+                generator.close();
+            } catch (IOException e) {
+                body.fail(e);
+            }
+        });
+    }
+
+    /**
+     * Reads the body the way the HTTP server does, with every read as a separate task on a virtual thread.
+     */
+    private static byte[] readAll(StreamedBody body) throws Exception {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Eventloop eventloop = Eventloop.create().withCurrentThread();
+            CompletableFuture<byte[]> result = new CompletableFuture<>();
+
+            ChannelSupplier.ofInputStream(executor, body.getInputStream())
+                    .toList()
+                    .whenComplete((bufs, e) -> {
+                        if (e != null) {
+                            result.completeExceptionally(e);
+                            return;
+                        }
+                        ByteArrayOutputStream out = new ByteArrayOutputStream();
+                        for (ByteBuf buf : bufs)
+                            out.writeBytes(buf.asArray());
+                        result.complete(out.toByteArray());
+                    });
+
+            eventloop.run();
+            return result.get();
+        }
+    }
+}